@@ -0,0 +1,32 @@
+package com.github.mwiede.metrics.feign.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs all benchmarks with the gc profiler, which adds the allocation rate in bytes/op, at 1, 2, 4,
+ * ... threads up to the number of available processors. Any arguments are passed to JMH, for
+ * example {@code -p configuration=none,capability} to restrict the measured configurations.
+ */
+public class BenchmarkRunner {
+
+  public static void main(final String... args) throws Exception {
+    final int processors = Runtime.getRuntime().availableProcessors();
+    for (int threads = 1; threads <= processors; threads = nextThreadCount(threads, processors)) {
+      final ChainedOptionsBuilder options =
+          new OptionsBuilder()
+              .parent(new CommandLineOptions(args))
+              .include(DecoratorOverheadBenchmark.class.getSimpleName())
+              .addProfiler(GCProfiler.class)
+              .threads(threads);
+      new Runner(options.build()).run();
+    }
+  }
+
+  private static int nextThreadCount(final int threads, final int processors) {
+    return threads < processors && threads * 2 > processors ? processors : threads * 2;
+  }
+}
@@ -0,0 +1,144 @@
+package com.github.mwiede.metrics.feign.benchmark;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.annotation.ExceptionMetered;
+import com.codahale.metrics.annotation.Metered;
+import com.codahale.metrics.annotation.ResponseMetered;
+import com.codahale.metrics.annotation.Timed;
+import com.github.mwiede.metrics.feign.AnnotionMetricsCapability;
+import com.github.mwiede.metrics.feign.FeignWithMetrics;
+
+import feign.Client;
+import feign.Feign;
+import feign.RequestLine;
+import feign.Response;
+
+/**
+ * Measures the overhead the metrics decorators add to a Feign invocation. The target is backed by
+ * an in-memory {@link Client}, so the measured time is Feign itself plus the decorators.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecoratorOverheadBenchmark {
+
+  @Timed
+  @Metered
+  @ExceptionMetered
+  @ResponseMetered
+  public interface AllAnnotations {
+    @RequestLine("POST /")
+    void call();
+  }
+
+  @Timed
+  public interface TimedOnly {
+    @RequestLine("POST /")
+    void call();
+  }
+
+  @Metered
+  public interface MeteredOnly {
+    @RequestLine("POST /")
+    void call();
+  }
+
+  @ResponseMetered
+  public interface ResponseMeteredOnly {
+    @RequestLine("POST /")
+    void call();
+  }
+
+  @ExceptionMetered
+  public interface ExceptionMeteredOnly {
+    @RequestLine("POST /")
+    void call();
+  }
+
+  private static final String URL = "http://localhost";
+
+  /**
+   * <ul>
+   * <li>none: plain Feign, annotations are ignored</li>
+   * <li>feignWithMetrics: {@link FeignWithMetrics#builder(MetricRegistry)}, all annotations</li>
+   * <li>capability: {@link AnnotionMetricsCapability}, all annotations</li>
+   * <li>capability*: {@link AnnotionMetricsCapability}, only the named annotation</li>
+   * <li>capabilityBuffered: {@link AnnotionMetricsCapability} with buffered recording, all
+   * annotations</li>
+   * </ul>
+   */
+  @Param({"none", "feignWithMetrics", "capability", "capabilityTimed", "capabilityMetered",
+      "capabilityResponseMetered", "capabilityExceptionMetered", "capabilityBuffered"})
+  public String configuration;
+
+  private Runnable call;
+
+  @Setup
+  public void setUp() {
+    final MetricRegistry metricRegistry = new MetricRegistry();
+    final Client client = (request, options) -> Response.builder().status(200).request(request)
+        .headers(Collections.emptyMap()).build();
+
+    switch (configuration) {
+      case "none":
+        call = Feign.builder().client(client).target(AllAnnotations.class, URL)::call;
+        break;
+      case "feignWithMetrics":
+        call = FeignWithMetrics.builder(metricRegistry).client(client)
+            .target(AllAnnotations.class, URL)::call;
+        break;
+      case "capability":
+        call = capability(client, metricRegistry).target(AllAnnotations.class, URL)::call;
+        break;
+      case "capabilityTimed":
+        call = capability(client, metricRegistry).target(TimedOnly.class, URL)::call;
+        break;
+      case "capabilityMetered":
+        call = capability(client, metricRegistry).target(MeteredOnly.class, URL)::call;
+        break;
+      case "capabilityResponseMetered":
+        call = capability(client, metricRegistry).target(ResponseMeteredOnly.class, URL)::call;
+        break;
+      case "capabilityExceptionMetered":
+        call = capability(client, metricRegistry).target(ExceptionMeteredOnly.class, URL)::call;
+        break;
+      case "capabilityBuffered":
+        call = Feign.builder().client(client)
+            .addCapability(AnnotionMetricsCapability.builder(metricRegistry)
+                .bufferedRecording(1, TimeUnit.SECONDS).build())
+            .target(AllAnnotations.class, URL)::call;
+        break;
+      default:
+        throw new IllegalArgumentException("unknown configuration " + configuration);
+    }
+  }
+
+  private static Feign.Builder capability(final Client client, final MetricRegistry metricRegistry) {
+    return Feign.builder().client(client)
+        .addCapability(new AnnotionMetricsCapability(metricRegistry));
+  }
+
+  @Benchmark
+  public void invoke() {
+    call.run();
+  }
+
+}
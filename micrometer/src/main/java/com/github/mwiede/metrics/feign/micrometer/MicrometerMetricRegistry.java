@@ -0,0 +1,290 @@
+package com.github.mwiede.metrics.feign.micrometer;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.UniformSnapshot;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+
+/**
+ * A {@link MetricRegistry} which publishes the metrics of
+ * {@link com.github.mwiede.metrics.feign.AnnotionMetricsCapability} to a Micrometer
+ * {@link MeterRegistry} instead of recording them with Dropwizard.
+ * <p>
+ * The capability resolves the metrics of each method once through the factory methods of the
+ * registry, like {@link #timer(String)}, and records into the returned handles on every invocation.
+ * The handles returned by this registry forward each recording to the Micrometer meter of the same
+ * name, so nothing is recorded twice. Timers, meters and histograms are published as Micrometer
+ * timers, counters and distribution summaries, counters and gauges as gauges. Metrics removed from
+ * this registry are removed from the {@link MeterRegistry} as well.
+ * <p>
+ * The Dropwizard side of the handles reports the counts of Micrometer, while its rates are zero.
+ * Snapshots of timers and histograms come from the metric of the given supplier, like a timer of
+ * {@link com.github.mwiede.metrics.feign.TimerSuppliers} or {@code @TimerReservoir}, or from a
+ * default Dropwizard metric. It only records once its snapshot was read, for example for the
+ * latency of hedging and retry backoffs, so metrics only published to Micrometer are recorded once.
+ * Percentiles of the Micrometer meters are configured in Micrometer. Timer sampling is not
+ * supported, Micrometer timers record every invocation.
+ */
+public class MicrometerMetricRegistry extends MetricRegistry {
+
+  private static final Reservoir EMPTY_RESERVOIR = new EmptyReservoir();
+  private static final MetricSupplier<Timer> DEFAULT_TIMER = Timer::new;
+  private static final MetricSupplier<Histogram> DEFAULT_HISTOGRAM =
+      () -> new Histogram(new ExponentiallyDecayingReservoir());
+
+  private final MeterRegistry meterRegistry;
+  private final Iterable<Tag> tags;
+  private final Map<String, io.micrometer.core.instrument.Meter> meters = new ConcurrentHashMap<>();
+
+  /**
+   * @param meterRegistry the registry to publish the metrics to
+   */
+  public MicrometerMetricRegistry(final MeterRegistry meterRegistry) {
+    this(meterRegistry, Collections.emptyList());
+  }
+
+  /**
+   * @param meterRegistry the registry to publish the metrics to
+   * @param tags the tags of all published meters
+   */
+  public MicrometerMetricRegistry(final MeterRegistry meterRegistry, final Iterable<Tag> tags) {
+    this.meterRegistry = meterRegistry;
+    this.tags = tags;
+    addListener(new Binder());
+  }
+
+  @Override
+  public Timer timer(final String name) {
+    return timer(name, DEFAULT_TIMER);
+  }
+
+  /**
+   * @param supplier the supplier of the timer whose snapshots the returned timer reports
+   */
+  @Override
+  public Timer timer(final String name, final MetricSupplier<Timer> supplier) {
+    return super.timer(name, () -> new MicrometerTimer(bind(name,
+        io.micrometer.core.instrument.Timer.builder(name).tags(tags).register(meterRegistry)),
+        supplier.newMetric()));
+  }
+
+  @Override
+  public Meter meter(final String name) {
+    return super.meter(name, () -> new MicrometerMeter(bind(name,
+        io.micrometer.core.instrument.Counter.builder(name).tags(tags).register(meterRegistry))));
+  }
+
+  /**
+   * Like {@link #meter(String)}, the supplier is ignored.
+   */
+  @Override
+  public Meter meter(final String name, final MetricSupplier<Meter> supplier) {
+    return meter(name);
+  }
+
+  @Override
+  public Histogram histogram(final String name) {
+    return histogram(name, DEFAULT_HISTOGRAM);
+  }
+
+  /**
+   * @param supplier the supplier of the histogram whose snapshots the returned histogram reports
+   */
+  @Override
+  public Histogram histogram(final String name, final MetricSupplier<Histogram> supplier) {
+    return super.histogram(name, () -> new MicrometerHistogram(bind(name,
+        DistributionSummary.builder(name).tags(tags).register(meterRegistry)),
+        supplier.newMetric()));
+  }
+
+  private <T extends io.micrometer.core.instrument.Meter> T bind(final String name, final T meter) {
+    meters.put(name, meter);
+    return meter;
+  }
+
+  private void unbind(final String name) {
+    final io.micrometer.core.instrument.Meter meter = meters.remove(name);
+    if (meter != null) {
+      meterRegistry.remove(meter);
+    }
+  }
+
+  /**
+   * Publishes counters and gauges once they are registered, and removes the Micrometer meters of
+   * removed metrics.
+   */
+  private class Binder extends MetricRegistryListener.Base {
+
+    @Override
+    public void onGaugeAdded(final String name, final Gauge<?> gauge) {
+      bind(name, io.micrometer.core.instrument.Gauge.builder(name, gauge, g -> {
+        final Object value = g.getValue();
+        return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+      }).tags(tags).strongReference(true).register(meterRegistry));
+    }
+
+    @Override
+    public void onGaugeRemoved(final String name) {
+      unbind(name);
+    }
+
+    @Override
+    public void onCounterAdded(final String name, final Counter counter) {
+      bind(name, io.micrometer.core.instrument.Gauge.builder(name, counter, Counter::getCount)
+          .tags(tags).strongReference(true).register(meterRegistry));
+    }
+
+    @Override
+    public void onCounterRemoved(final String name) {
+      unbind(name);
+    }
+
+    @Override
+    public void onHistogramRemoved(final String name) {
+      unbind(name);
+    }
+
+    @Override
+    public void onMeterRemoved(final String name) {
+      unbind(name);
+    }
+
+    @Override
+    public void onTimerRemoved(final String name) {
+      unbind(name);
+    }
+  }
+
+  /**
+   * Records into a Micrometer timer, and into a Dropwizard timer once its snapshot was read.
+   */
+  private static class MicrometerTimer extends Timer {
+
+    private final io.micrometer.core.instrument.Timer timer;
+    private final Timer local;
+    private volatile boolean read;
+
+    MicrometerTimer(final io.micrometer.core.instrument.Timer timer, final Timer local) {
+      super(EMPTY_RESERVOIR);
+      this.timer = timer;
+      this.local = local;
+    }
+
+    @Override
+    public void update(final long duration, final TimeUnit unit) {
+      timer.record(duration, unit);
+      if (read) {
+        local.update(duration, unit);
+      }
+    }
+
+    @Override
+    public void update(final Duration duration) {
+      timer.record(duration);
+      if (read) {
+        local.update(duration);
+      }
+    }
+
+    @Override
+    public long getCount() {
+      return timer.count();
+    }
+
+    @Override
+    public Snapshot getSnapshot() {
+      read = true;
+      return local.getSnapshot();
+    }
+  }
+
+  private static class MicrometerMeter extends Meter {
+
+    private final io.micrometer.core.instrument.Counter counter;
+
+    MicrometerMeter(final io.micrometer.core.instrument.Counter counter) {
+      this.counter = counter;
+    }
+
+    @Override
+    public void mark(final long n) {
+      counter.increment(n);
+    }
+
+    @Override
+    public long getCount() {
+      return (long) counter.count();
+    }
+  }
+
+  /**
+   * Records into a Micrometer distribution summary, and into a Dropwizard histogram once its
+   * snapshot was read.
+   */
+  private static class MicrometerHistogram extends Histogram {
+
+    private final DistributionSummary summary;
+    private final Histogram local;
+    private volatile boolean read;
+
+    MicrometerHistogram(final DistributionSummary summary, final Histogram local) {
+      super(EMPTY_RESERVOIR);
+      this.summary = summary;
+      this.local = local;
+    }
+
+    @Override
+    public void update(final long value) {
+      summary.record(value);
+      if (read) {
+        local.update(value);
+      }
+    }
+
+    @Override
+    public Snapshot getSnapshot() {
+      read = true;
+      return local.getSnapshot();
+    }
+
+    @Override
+    public long getCount() {
+      return summary.count();
+    }
+  }
+
+  private static class EmptyReservoir implements Reservoir {
+
+    private static final Snapshot EMPTY = new UniformSnapshot(new long[0]);
+
+    @Override
+    public int size() {
+      return 0;
+    }
+
+    @Override
+    public void update(final long value) {}
+
+    @Override
+    public Snapshot getSnapshot() {
+      return EMPTY;
+    }
+  }
+}
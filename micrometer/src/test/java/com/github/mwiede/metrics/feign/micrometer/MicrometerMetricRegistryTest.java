@@ -0,0 +1,123 @@
+package com.github.mwiede.metrics.feign.micrometer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.SlidingWindowReservoir;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.annotation.Counted;
+import com.codahale.metrics.annotation.ExceptionMetered;
+import com.codahale.metrics.annotation.Metered;
+import com.codahale.metrics.annotation.ResponseMetered;
+import com.codahale.metrics.annotation.Timed;
+import com.github.mwiede.metrics.feign.AnnotionMetricsCapability;
+
+import feign.Client;
+import feign.Feign;
+import feign.RequestLine;
+import feign.Response;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class MicrometerMetricRegistryTest {
+
+  private static final String PREFIX =
+      "com.github.mwiede.metrics.feign.micrometer.MicrometerMetricRegistryTest$MyClient.myMethod.";
+
+  interface MyClient {
+    @Timed
+    @ExceptionMetered
+    @Metered
+    @ResponseMetered
+    @Counted
+    @RequestLine("POST /")
+    void myMethod();
+  }
+
+  MeterRegistry meterRegistry;
+  MicrometerMetricRegistry metricRegistry;
+
+  @Before
+  public void init() {
+    meterRegistry = new SimpleMeterRegistry();
+    metricRegistry = new MicrometerMetricRegistry(meterRegistry);
+  }
+
+  @Test
+  public void metricsArePublishedToMicrometer() {
+    final double[] inFlight = {-1};
+    final Client client = (request, options) -> {
+      inFlight[0] = meterRegistry.get(PREFIX + "Counted").gauge().value();
+      return Response.builder().status(200).request(request).headers(Collections.emptyMap())
+          .build();
+    };
+    final MyClient target = Feign.builder().client(client)
+        .addCapability(AnnotionMetricsCapability.builder(metricRegistry)
+            .timerSupplier(com.codahale.metrics.Timer::new).build())
+        .target(MyClient.class, "http://localhost");
+
+    target.myMethod();
+    target.myMethod();
+
+    assertEquals(2, meterRegistry.get(PREFIX + "Timed").timer().count());
+    assertTrue(meterRegistry.get(PREFIX + "Timed").timer().totalTime(TimeUnit.NANOSECONDS) > 0);
+    assertEquals(2, meterRegistry.get(PREFIX + "Metered").counter().count(), 0);
+    assertEquals(2, meterRegistry.get(PREFIX + "2xx-responses").counter().count(), 0);
+    assertEquals(0, meterRegistry.get(PREFIX + "exceptions").counter().count(), 0);
+    assertEquals(1, inFlight[0], 0);
+    assertEquals(0, meterRegistry.get(PREFIX + "Counted").gauge().value(), 0);
+
+    // the dropwizard handles report the counts of micrometer
+    assertEquals(2, metricRegistry.timer(PREFIX + "Timed").getCount());
+    assertEquals(2, metricRegistry.meter(PREFIX + "Metered").getCount());
+  }
+
+  @Test
+  public void snapshotsRecordOnceRead() {
+    final com.codahale.metrics.Timer timer = metricRegistry.timer(PREFIX + "Timed",
+        () -> new com.codahale.metrics.Timer(new SlidingWindowReservoir(10)));
+    timer.update(1, TimeUnit.MILLISECONDS);
+    assertEquals(0, timer.getSnapshot().size());
+
+    timer.update(5, TimeUnit.MILLISECONDS);
+    timer.update(7, TimeUnit.MILLISECONDS);
+
+    final Snapshot snapshot = timer.getSnapshot();
+    assertEquals(2, snapshot.size());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(5), snapshot.getMin());
+    assertEquals(3, meterRegistry.get(PREFIX + "Timed").timer().count());
+
+    final Histogram histogram = metricRegistry.histogram(PREFIX + "size");
+    histogram.getSnapshot();
+    histogram.update(42);
+    assertEquals(42, histogram.getSnapshot().getMax());
+    assertEquals(1, meterRegistry.get(PREFIX + "size").summary().count());
+  }
+
+  @Test
+  public void removedMetricsAreRemovedFromMicrometer() {
+    final Client client = (request, options) -> Response.builder().status(200).request(request)
+        .headers(Collections.emptyMap()).build();
+    final AnnotionMetricsCapability capability =
+        AnnotionMetricsCapability.builder(metricRegistry).releaseMetricsOfCollectedClients().build();
+    final MyClient target = Feign.builder().client(client).addCapability(capability)
+        .target(MyClient.class, "http://localhost");
+
+    target.myMethod();
+    assertEquals(1, meterRegistry.get(PREFIX + "Timed").timer().count());
+
+    assertTrue(capability.release(target));
+
+    assertNull(meterRegistry.find(PREFIX + "Timed").timer());
+    assertNull(meterRegistry.find(PREFIX + "Counted").gauge());
+    assertTrue(meterRegistry.getMeters().isEmpty());
+  }
+}
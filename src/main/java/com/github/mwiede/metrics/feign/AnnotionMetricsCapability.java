@@ -1,34 +1,462 @@
 package com.github.mwiede.metrics.feign;
 
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import feign.AsyncClient;
 import feign.Capability;
 import feign.Client;
 import feign.InvocationHandlerFactory;
 import feign.Retryer;
+import feign.codec.Decoder;
+import feign.codec.Encoder;
 
 /**
  * A {@link Capability} to enrich {@link feign.Feign} with dropwizard annotion-based metrics.
+ * <p>
+ * The metrics of each method are resolved once through the factory methods of the {@link MetricRegistry}, which
+ * therefore decides how they are recorded: a {@link com.codahale.metrics.NoopMetricRegistry} records nothing, and
+ * the registry of the optional micrometer module publishes them to Micrometer.
+ * <p>
+ * Optionally, synchronous clients cache the responses of methods annotated with {@link ResponseCached}, and meter the
+ * hits, misses, revalidations and evictions of the cache next to the other metrics of the method. They can send the
+ * requests of a {@link LoadBalancedTarget} to the endpoint with the lowest latency and fewest requests in flight of
+ * two random ones.
  */
 public class AnnotionMetricsCapability implements Capability {
 
     private final MetricRegistry metricRegistry;
+    final MetricsConfig config;
 
     public AnnotionMetricsCapability(MetricRegistry metricRegistry) {
-        this.metricRegistry = metricRegistry;
+        this(builder(metricRegistry));
+    }
+
+    private AnnotionMetricsCapability(Builder builder) {
+        this.metricRegistry = builder.metricRegistry;
+        this.config = builder.config.build();
+    }
+
+    /**
+     * @param metricRegistry the registry to register the metrics in
+     * @return a builder to configure optional features of the capability
+     */
+    public static Builder builder(MetricRegistry metricRegistry) {
+        return new Builder(metricRegistry);
     }
 
     @Override
     public Client enrich(Client client) {
-        return new FeignMetricsClientDecorator(client);
+        Client decorated = client;
+        // only responses from the server add to the retry budget, including those of hedges
+        if (config.retryBudgets != null) {
+            decorated = new FeignRetryBudgetClientDecorator(decorated, config.retryBudgets);
+        }
+        // requests are routed to their endpoint last, so each hedge chooses its own
+        if (config.loadBalancing) {
+            decorated = new FeignLoadBalancingClientDecorator(decorated, metricRegistry);
+        }
+        // hedges are sent below the metrics, so only the response which is used is metered
+        if (config.hedgeExecutor != null) {
+            decorated = new FeignHedgingClientDecorator(decorated, config);
+        }
+        // coalesced requests are metered like sent ones, each with its copy of the response
+        if (config.coalescingHeaders != null) {
+            decorated = new FeignCoalescingClientDecorator(decorated, config);
+        }
+        decorated = new FeignMetricsClientDecorator(decorated, config);
+        // responses from the cache never reach the transport, so they are not timed as received ones
+        return config.responseCaching ? new FeignCachingClientDecorator(decorated, config) : decorated;
+    }
+
+    @Override
+    public AsyncClient<Object> enrich(AsyncClient<Object> client) {
+        return new FeignMetricsAsyncClientDecorator<>(client, config);
     }
 
     @Override
     public InvocationHandlerFactory enrich(InvocationHandlerFactory invocationHandlerFactory) {
-        return new FeignMetricsInvocationHandlerFactoryDecorator(invocationHandlerFactory, metricRegistry);
+        return new FeignMetricsInvocationHandlerFactoryDecorator(invocationHandlerFactory, metricRegistry, config);
     }
 
     @Override
     public Retryer enrich(Retryer retryer) {
-        return new FeignMetricsRetryerDecorator(retryer, metricRegistry);
+        return new FeignMetricsRetryerDecorator(retryer, metricRegistry, config);
+    }
+
+    @Override
+    public Encoder enrich(Encoder encoder) {
+        return config.phaseTimers ? new FeignMetricsEncoderDecorator(encoder, config) : encoder;
+    }
+
+    @Override
+    public Decoder enrich(Decoder decoder) {
+        return config.phaseTimers ? new FeignMetricsDecoderDecorator(decoder, config) : decoder;
+    }
+
+    /**
+     * Removes the metrics of a client created with this capability from the registry, without waiting for it
+     * to be garbage collected. Metrics shared with other clients of the same interface are kept until the last
+     * of them is released. Clients created by {@link feign.AsyncFeign} are only released once collected.
+     *
+     * @param client the client created by {@link feign.Feign.Builder#target(Class, String)}
+     * @return {@code false} if the client is unknown or was already released
+     * @throws IllegalStateException if neither {@link Builder#releaseMetricsOfCollectedClients()} nor
+     *         {@link Builder#evictIdleMetrics(long, TimeUnit)} is enabled
+     */
+    public boolean release(Object client) {
+        if (config.lifecycle == null) {
+            throw new IllegalStateException("the lifecycle of metrics is not managed by this capability");
+        }
+        return Proxy.isProxyClass(client.getClass())
+                && config.lifecycle.release(Proxy.getInvocationHandler(client));
+    }
+
+    public static class Builder {
+
+        private final MetricRegistry metricRegistry;
+        private final MetricsConfig.Builder config = new MetricsConfig.Builder();
+
+        private Builder(MetricRegistry metricRegistry) {
+            this.metricRegistry = metricRegistry;
+        }
+
+        /**
+         * Resolves the metrics of the invoked method from the {@link feign.MethodMetadata} of each
+         * {@link feign.Request} instead of passing it through threadlocals. This works even if the request is
+         * executed on another thread than the invocation.
+         *
+         * @return this builder
+         */
+        public Builder methodFromRequest() {
+            config.methodFromRequest();
+            return this;
+        }
+
+        /**
+         * Sets the supplier of the timers of {@link com.codahale.metrics.annotation.Timed} methods, for example
+         * {@link TimerSuppliers#hdrHistogram()}. It can be overridden per interface or method with
+         * {@link TimerReservoir}.
+         *
+         * @param timerSupplier the supplier of timers
+         * @return this builder
+         */
+        public Builder timerSupplier(MetricRegistry.MetricSupplier<Timer> timerSupplier) {
+            config.timerSupplier(timerSupplier);
+            return this;
+        }
+
+        /**
+         * Times only one of every {@code rate} invocations of {@link com.codahale.metrics.annotation.Timed}
+         * methods, chosen at random, to reduce the cost of timing very frequently invoked methods. Each timed
+         * invocation counts {@code rate} times, so the count and rates of the timer estimate all invocations,
+         * while its snapshot only contains the timed ones. Meters still count every invocation. Phase, attempt
+         * and queue wait timers are not sampled.
+         * <p>
+         * Sampling requires a registry which creates timers through the given supplier, like Dropwizard's own
+         * registries. Other registries time every invocation.
+         *
+         * @param rate the sample rate, 1 to time every invocation
+         * @return this builder
+         */
+        public Builder sampleTimers(int rate) {
+            config.sampleTimers(rate);
+            return this;
+        }
+
+        /**
+         * Like {@link #sampleTimers(int)}, but adapts the rate of each method every second, so that at most
+         * {@code maxSamplesPerSecond} invocations per second are timed.
+         *
+         * @param maxSamplesPerSecond the maximum number of timed invocations per second and method
+         * @return this builder
+         */
+        public Builder sampleTimersAdaptively(int maxSamplesPerSecond) {
+            config.sampleTimersAdaptively(maxSamplesPerSecond);
+            return this;
+        }
+
+        /**
+         * Additionally meters each exact status code of {@link com.codahale.metrics.annotation.ResponseMetered}
+         * methods, for example {@code 429-responses}. The meters are registered on the first response with that
+         * status, and statuses outside of 100 to 599 are metered as {@code other-responses}.
+         *
+         * @return this builder
+         */
+        public Builder detailedResponseMeters() {
+            config.detailedResponseMeters();
+            return this;
+        }
+
+        /**
+         * Dimensions the metrics of each target by the host of its url, which is appended to the name of the
+         * method, like {@code GitHub.contributors.api_github_com.Timed}. Dots in the host are replaced by
+         * underscores. Targets beyond {@code maxHosts} distinct hosts share the dimension {@code other}.
+         *
+         * @param maxHosts the maximum number of distinct hosts
+         * @return this builder
+         */
+        public Builder dimensionByTargetHost(int maxHosts) {
+            config.targetDimensions(TargetDimensions.Type.HOST, maxHosts);
+            return this;
+        }
+
+        /**
+         * Like {@link #dimensionByTargetHost(int)}, but using the name of the {@link feign.Target}.
+         *
+         * @param maxTargets the maximum number of distinct target names
+         * @return this builder
+         */
+        public Builder dimensionByTargetName(int maxTargets) {
+            config.targetDimensions(TargetDimensions.Type.NAME, maxTargets);
+            return this;
+        }
+
+        /**
+         * Records histograms of the sizes of request and response bodies in bytes for every method, named like
+         * {@code contributors.requestSize} and {@code contributors.responseSize}. The size of a response body is
+         * taken from its length if known, otherwise the bytes are counted while the body is read, until it is
+         * read to its end or closed. Bodies are never buffered.
+         *
+         * @return this builder
+         */
+        public Builder payloadSizes() {
+            config.payloadSizes();
+            return this;
+        }
+
+        /**
+         * Additionally times the phases of each invocation of {@link com.codahale.metrics.annotation.Timed}
+         * methods: encoding the request body, the transport until the response headers are received, decoding
+         * the response body and sleeping before retries, like {@code contributors.decode.Timed}. With an explicit
+         * name of the annotation, the phase is appended to it, like {@code name.decode}.
+         *
+         * @return this builder
+         */
+        public Builder phaseTimers() {
+            config.phaseTimers();
+            return this;
+        }
+
+        /**
+         * Additionally meters the class of the root cause of each exception of
+         * {@link com.codahale.metrics.annotation.ExceptionMetered} methods, like
+         * {@code contributors.exceptions.java_net_SocketTimeoutException}. Root causes beyond {@code maxClasses}
+         * distinct classes per method share the meter {@code exceptions.other}.
+         *
+         * @param maxClasses the maximum number of distinct classes per method
+         * @return this builder
+         */
+        public Builder rootCauseMeters(int maxClasses) {
+            config.rootCauses(maxClasses);
+            return this;
+        }
+
+        /**
+         * Records the retries of every synchronous method once per invocation: a histogram {@code attempts} of
+         * the number of requests sent, a timer {@code attempt.Timed} of the duration of each request, and a
+         * timer {@code retryBackoff.Timed} of the total backoff of invocations which were retried.
+         *
+         * @return this builder
+         */
+        public Builder retryMetrics() {
+            config.retryMetrics();
+            return this;
+        }
+
+        /**
+         * Buffers the marks of {@link com.codahale.metrics.annotation.Metered} methods and the durations of
+         * {@link com.codahale.metrics.annotation.Timed} methods per thread, and drains them into the meters and
+         * timers on a shared daemon thread every {@code interval}. Invocations then no longer contend on the
+         * moving averages and reservoirs of hot methods, but meters and timers are up to one interval, plus the
+         * time to drain, behind the invocations, and their rates account the invocations when drained.
+         *
+         * @param interval the interval of draining the buffers
+         * @param unit the unit of the interval
+         * @return this builder
+         */
+        public Builder bufferedRecording(long interval, TimeUnit unit) {
+            config.bufferedRecording(unit.toNanos(interval));
+            return this;
+        }
+
+        /**
+         * Limits the concurrent invocations of every method adaptively to protect slow downstreams. The limit
+         * follows the latency of invocations: it grows slowly while latencies are stable and shrinks once they
+         * rise above their long-term average or requests fail with a {@link feign.RetryableException}, like on
+         * timeouts. Invocations beyond the limit are rejected immediately with a
+         * {@link ConcurrencyLimitExceededException}, or a future failed with it for methods returning a
+         * {@link java.util.concurrent.CompletableFuture}, and metered as
+         * {@code contributors.concurrencyLimit.rejected}.
+         * The gauges {@code contributors.concurrencyLimit} and {@code contributors.concurrencyLimit.inFlight}
+         * expose the current limit and the invocations in flight. With dimensions by target, each target has its
+         * own limit.
+         *
+         * @param initialLimit the limit before latencies are known
+         * @param maxLimit the maximum limit
+         * @return this builder
+         */
+        public Builder adaptiveConcurrencyLimit(int initialLimit, int maxLimit) {
+            config.concurrencyLimit(initialLimit, maxLimit);
+            return this;
+        }
+
+        /**
+         * Hedges idempotent requests of {@link com.codahale.metrics.annotation.Timed} methods to cut their tail
+         * latency: once a request took longer than the given quantile of the latency of its method, the same
+         * request is sent again, and whichever responds first is used. The other response is closed once it
+         * arrives. Requests with the methods GET, HEAD and OPTIONS and methods annotated with {@link Idempotent}
+         * are idempotent. The latency is taken from the transport timer if {@link #phaseTimers()} is enabled, or
+         * the timer of the method otherwise, and requests are only hedged once it has at least 20 samples.
+         * <p>
+         * Hedges of each method are limited to {@code maxHedgeRatio} of its requests, with a burst of up to 10.
+         * They are metered as {@code contributors.hedges.Metered}, hedges which responded first as
+         * {@code contributors.hedgesWon.Metered}, and requests which were not hedged for lack of budget as
+         * {@code contributors.hedgeBudgetExhausted.Metered}. Requests which may be hedged are sent on the given
+         * executor, which must be able to run two requests per invocation, and the invoking thread waits for the
+         * first response at most for the read timeout once the hedge was due. Only synchronous clients are hedged.
+         *
+         * @param quantile the quantile of the latency after which a request is hedged, like 0.95
+         * @param maxHedgeRatio the maximum ratio of hedges to requests, like 0.05
+         * @param executor the executor to send hedged requests on
+         * @return this builder
+         */
+        public Builder hedgeIdempotentRequests(double quantile, double maxHedgeRatio, ExecutorService executor) {
+            config.hedging(quantile, maxHedgeRatio, executor);
+            return this;
+        }
+
+        /**
+         * Coalesces identical GET and HEAD requests in flight: while a request is sent, identical requests wait for
+         * its response instead of being sent as well, and each of them gets a copy of the response. Requests are
+         * identical if their url and the values of the given headers are equal, so headers which select what is
+         * returned, like {@code Authorization} or {@code Accept}, must be given. The body of a response is only
+         * read into memory if identical requests wait for it, for at most their read timeout. Only synchronous clients coalesce requests.
+         * <p>
+         * Requests which were sent are metered as {@code contributors.originating.Metered}, and requests which
+         * used the response of another as {@code contributors.coalesced.Metered}.
+         *
+         * @param headers the names of the headers whose values must be equal for requests to be coalesced
+         * @return this builder
+         */
+        public Builder coalesceIdenticalRequests(String... headers) {
+            config.coalescing(headers);
+            return this;
+        }
+
+        /**
+         * Caches the successful responses to GET requests of methods annotated with {@link ResponseCached}, by url
+         * and the values of the headers named by the annotation. Responses from the cache are metered as
+         * {@code contributors.cacheHits.Metered} only, and neither timed nor metered as received responses. Misses,
+         * revalidations and evictions are metered as {@code contributors.cacheMisses.Metered},
+         * {@code contributors.cacheRevalidations.Metered} and {@code contributors.cacheEvictions.Metered}, and the
+         * gauge {@code contributors.cacheBytes} holds the size of the cached bodies. Only synchronous clients cache
+         * responses.
+         *
+         * @return this builder
+         */
+        public Builder cacheResponses() {
+            config.responseCaching();
+            return this;
+        }
+
+        /**
+         * Sends the requests of a {@link LoadBalancedTarget} to one of its endpoints: of two random ones, the endpoint
+         * with the lower peak EWMA of its latency times its requests in flight plus one is chosen. Only synchronous
+         * clients balance load.
+         *
+         * @return this builder
+         */
+        public Builder balanceLoad() {
+            config.loadBalancing();
+            return this;
+        }
+
+        /**
+         * Limits the retries of each target to a ratio of its successful requests, so retries do not multiply the
+         * load of a failing server: each response with a status below 500 adds {@code ratio} of a retry to the
+         * budget of its target, and each retry takes one. Beyond that, {@code minRetriesPerSecond} are allowed, so
+         * targets with little traffic can still retry, and the budget holds up to 10 seconds of them, or 10
+         * retries. Only responses received from the server count, not those from the cache or of coalesced requests.
+         * Clients of equal targets share a budget, which is exposed as the gauge
+         * {@code <interface>.<target dimension>.retryBudget} of the retries currently allowed, where the dimension
+         * is the target name, or the host if {@link #dimensionByTargetHost(int)} is enabled. Beyond 100 targets, or
+         * the maximum of {@link #dimensionByTargetName(int)} or {@link #dimensionByTargetHost(int)}, targets share
+         * the budget {@code other}. Retries denied by the budget are metered as
+         * {@code contributors.retryBudgetExhausted.Metered}.
+         *
+         * @param ratio the maximum ratio of retries to successful requests, like 0.1
+         * @param minRetriesPerSecond the retries allowed per second regardless of the requests
+         * @return this builder
+         */
+        public Builder retryBudget(double ratio, int minRetriesPerSecond) {
+            config.retryBudget(ratio, minRetriesPerSecond);
+            return this;
+        }
+
+        /**
+         * Makes up to {@code maxAttempts} attempts of synchronous invocations, backing off by the latency of the
+         * method instead of the fixed periods of the configured {@link Retryer}: the median of the transport timer
+         * if {@link #phaseTimers()} is enabled or the timer of a {@link com.codahale.metrics.annotation.Timed}
+         * method otherwise, growing by 1.5 per attempt with jitter, or 100 milliseconds while the latency is not
+         * known. A time to retry after sent by the server is respected up to the maximum backoff. The latest
+         * backoff of each method is exposed as the gauge {@code contributors.effectiveBackoff} in milliseconds.
+         *
+         * @param maxAttempts the maximum number of attempts of an invocation
+         * @param maxBackoff the maximum backoff before an attempt
+         * @param unit the unit of the maximum backoff
+         * @return this builder
+         */
+        public Builder adaptiveRetryBackoff(int maxAttempts, long maxBackoff, TimeUnit unit) {
+            config.adaptiveBackoff(maxAttempts, unit.toNanos(maxBackoff));
+            return this;
+        }
+
+        /**
+         * Registers the metrics of a method on its first invocation instead of when the client is created, so
+         * clients with many methods are created faster and methods which are never invoked have no metrics in
+         * the registry. The annotations of an interface are resolved once either way and shared by all its
+         * clients.
+         *
+         * @return this builder
+         */
+        public Builder lazyRegistration() {
+            config.lazyRegistration();
+            return this;
+        }
+
+        /**
+         * Removes the metrics of a client from the registry once its proxy is garbage collected or it is
+         * released with {@link AnnotionMetricsCapability#release(Object)}. Metrics shared by several clients, like
+         * those of the same interface and dimension, are only removed with the last of them. Collected clients are
+         * detected by a shared daemon thread every few seconds.
+         *
+         * @return this builder
+         */
+        public Builder releaseMetricsOfCollectedClients() {
+            config.lifecycle();
+            return this;
+        }
+
+        /**
+         * Like {@link #releaseMetricsOfCollectedClients()}, and additionally removes the metrics of a method which
+         * has not been invoked for the given window. They are registered again on its next invocation, starting
+         * from zero unless another client still uses them.
+         *
+         * @param window the idle window
+         * @param unit the unit of the window
+         * @return this builder
+         */
+        public Builder evictIdleMetrics(long window, TimeUnit unit) {
+            config.evictIdle(unit.toNanos(window));
+            return this;
+        }
+
+        public AnnotionMetricsCapability build() {
+            return new AnnotionMetricsCapability(this);
+        }
     }
 }
@@ -0,0 +1,51 @@
+package com.github.mwiede.metrics.feign;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Periodically runs an action on a target on a shared daemon thread, until the target itself is
+ * collected. The task only weakly references its target, so scheduling it does not keep the
+ * capability of the target alive.
+ */
+final class BackgroundTask<T> implements Runnable {
+
+  private static final ScheduledExecutorService SCHEDULER =
+      Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "metrics-feign-background");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  private final WeakReference<T> target;
+  private final Consumer<T> action;
+  private volatile ScheduledFuture<?> future;
+
+  private BackgroundTask(final T target, final Consumer<T> action) {
+    this.target = new WeakReference<>(target);
+    this.action = action;
+  }
+
+  /**
+   * @param action the action, which must not reference the target itself
+   */
+  static <T> void schedule(final T target, final Consumer<T> action, final long intervalNanos) {
+    final BackgroundTask<T> task = new BackgroundTask<>(target, action);
+    task.future = SCHEDULER.scheduleWithFixedDelay(task, intervalNanos, intervalNanos,
+        TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void run() {
+    final T current = target.get();
+    if (current == null) {
+      future.cancel(false);
+      return;
+    }
+    action.accept(current);
+  }
+}
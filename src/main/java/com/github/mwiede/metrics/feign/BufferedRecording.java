@@ -0,0 +1,194 @@
+package com.github.mwiede.metrics.feign;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+
+/**
+ * Buffers the marks of the meter and the durations of the timer of methods, and drains them into
+ * the meter and timer on a shared daemon thread at a fixed interval. Invocations then only increment
+ * a striped counter and append a duration to a buffer of their own thread, without taking a lock,
+ * instead of updating the moving averages and the reservoir.
+ * <p>
+ * Marks and durations are published at most one interval late, plus the time of a flush. The rates
+ * of the meter and timer account them at the time they are drained. The buffers of a thread grow
+ * with the durations it records within an interval. Once {@link #MAX_BUFFERED} durations of a
+ * method are buffered, further durations are recorded directly until the next flush.
+ */
+class BufferedRecording {
+
+  /**
+   * The maximum number of durations buffered per method.
+   */
+  static final int MAX_BUFFERED = 1 << 16;
+  private static final int MIN_CHUNK_SIZE = 16;
+  private static final int MAX_CHUNK_SIZE = 1024;
+
+  private final long intervalNanos;
+  private final Queue<MethodBuffer> buffers = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+
+  BufferedRecording(final long intervalNanos) {
+    this.intervalNanos = intervalNanos;
+  }
+
+  /**
+   * @param meter the meter of the method, or {@code null}
+   * @param timer the timer of the method, or {@code null}
+   * @return the buffer of the method
+   */
+  MethodBuffer buffer(final Meter meter, final Timer timer) {
+    final MethodBuffer buffer = new MethodBuffer(meter, timer);
+    buffers.add(buffer);
+    if (scheduled.compareAndSet(false, true)) {
+      BackgroundTask.schedule(this, BufferedRecording::flush, intervalNanos);
+    }
+    return buffer;
+  }
+
+  /**
+   * Drains all buffers into their meters and timers.
+   */
+  synchronized void flush() {
+    for (final Iterator<MethodBuffer> iterator = buffers.iterator(); iterator.hasNext();) {
+      final MethodBuffer buffer = iterator.next();
+      buffer.flush();
+      if (buffer.released) {
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * The buffers of a single method. Each thread appends durations to chunks of its own, which only
+   * it writes and only the flushing thread reads, and starts a chunk twice as large once one is
+   * full, up to {@link #MAX_CHUNK_SIZE}. Chunks are dropped once they are drained and full, or
+   * their thread ended.
+   */
+  static class MethodBuffer {
+
+    private final Meter meter;
+    private final Timer timer;
+    private final LongAdder marks = new LongAdder();
+    private final ThreadLocal<Chunk> current = new ThreadLocal<>();
+    private final Queue<Chunk> chunks = new ConcurrentLinkedQueue<>();
+    /**
+     * The capacity of the chunks in {@link #chunks}.
+     */
+    private final AtomicLong buffered = new AtomicLong();
+    private volatile boolean released;
+
+    private MethodBuffer(final Meter meter, final Timer timer) {
+      this.meter = meter;
+      this.timer = timer;
+    }
+
+    void mark() {
+      marks.increment();
+    }
+
+    void update(final long nanos) {
+      final Chunk chunk = current.get();
+      if (chunk != null && chunk.add(nanos)) {
+        return;
+      }
+      final int size = chunk != null ? Math.min(MAX_CHUNK_SIZE, chunk.durations.length * 2)
+          : MIN_CHUNK_SIZE;
+      if (buffered.addAndGet(size) > MAX_BUFFERED) {
+        buffered.addAndGet(-size);
+        timer.update(nanos, TimeUnit.NANOSECONDS);
+        return;
+      }
+      final Chunk next = new Chunk(size);
+      next.add(nanos);
+      current.set(next);
+      chunks.add(next);
+    }
+
+    /**
+     * Stops draining the buffers after the next flush, once the metrics of the method were removed
+     * from the registry.
+     */
+    void release() {
+      released = true;
+    }
+
+    private void flush() {
+      if (meter != null) {
+        final long count = marks.sumThenReset();
+        if (count > 0) {
+          meter.mark(count);
+        }
+      }
+      for (final Iterator<Chunk> iterator = chunks.iterator(); iterator.hasNext();) {
+        final Chunk chunk = iterator.next();
+        final boolean ended = chunk.ended();
+        chunk.drainTo(timer);
+        if (chunk.drained == chunk.durations.length || ended) {
+          iterator.remove();
+          buffered.addAndGet(-chunk.durations.length);
+        }
+      }
+    }
+  }
+
+  /**
+   * Durations appended by a single thread and read by the flushing thread. The size is published
+   * after the duration is written, so the flushing thread reads only complete durations.
+   */
+  private static class Chunk {
+
+    private static final AtomicIntegerFieldUpdater<Chunk> SIZE =
+        AtomicIntegerFieldUpdater.newUpdater(Chunk.class, "size");
+
+    private final long[] durations;
+    private final WeakReference<Thread> owner = new WeakReference<>(Thread.currentThread());
+    private volatile int size;
+    /**
+     * The number of durations drained, only used by the flushing thread.
+     */
+    private int drained;
+
+    Chunk(final int size) {
+      this.durations = new long[size];
+    }
+
+    /**
+     * @return {@code false} if the chunk is full
+     */
+    boolean add(final long nanos) {
+      final int index = size;
+      if (index == durations.length) {
+        return false;
+      }
+      durations[index] = nanos;
+      SIZE.lazySet(this, index + 1);
+      return true;
+    }
+
+    /**
+     * @return whether the thread of the chunk ended, so it will not append any more
+     */
+    boolean ended() {
+      final Thread thread = owner.get();
+      return thread == null || !thread.isAlive();
+    }
+
+    void drainTo(final Timer timer) {
+      final int count = size;
+      for (int i = drained; i < count; i++) {
+        timer.update(durations[i], TimeUnit.NANOSECONDS);
+      }
+      drained = count;
+    }
+  }
+}
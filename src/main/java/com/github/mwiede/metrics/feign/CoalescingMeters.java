@@ -0,0 +1,26 @@
+package com.github.mwiede.metrics.feign;
+
+import static com.github.mwiede.metrics.feign.FeignMetricsInvocationHandlerFactoryDecorator.partMeter;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * The meters of coalesced requests of a method: {@code originating.Metered} of requests which were
+ * sent, and {@code coalesced.Metered} of requests which waited for an identical request in flight
+ * instead.
+ */
+class CoalescingMeters {
+  final Meter originating;
+  final Meter coalesced;
+
+  CoalescingMeters(final MetricRegistry registry, final Method method, final String dimension,
+      final Map<String, Metric> registered) {
+    this.originating = partMeter(registry, method, dimension, "originating", registered);
+    this.coalesced = partMeter(registry, method, dimension, "coalesced", registered);
+  }
+}
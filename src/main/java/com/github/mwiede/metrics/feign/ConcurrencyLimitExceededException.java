@@ -0,0 +1,26 @@
+package com.github.mwiede.metrics.feign;
+
+/**
+ * Thrown instead of invoking a method whose adaptive concurrency limit is reached, see
+ * {@link AnnotionMetricsCapability.Builder#adaptiveConcurrencyLimit(int, int)}. It has no stack
+ * trace, so rejecting is cheap.
+ */
+public class ConcurrencyLimitExceededException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final int limit;
+
+  public ConcurrencyLimitExceededException(final String method, final int limit) {
+    super("the concurrency limit of " + limit + " of " + method + " is reached", null, false,
+        false);
+    this.limit = limit;
+  }
+
+  /**
+   * @return the limit at the time of the rejection
+   */
+  public int getLimit() {
+    return limit;
+  }
+}
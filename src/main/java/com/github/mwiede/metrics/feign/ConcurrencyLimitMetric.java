@@ -0,0 +1,62 @@
+package com.github.mwiede.metrics.feign;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.github.mwiede.metrics.feign.FeignMetricsInvocationHandlerFactoryDecorator.chooseDimensionedName;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+
+import feign.Feign;
+
+/**
+ * The adaptive concurrency limit of a method, with a gauge {@code concurrencyLimit} of the limit, a
+ * gauge {@code concurrencyLimit.inFlight} of the invocations in flight and a meter
+ * {@code concurrencyLimit.rejected} of rejected invocations. Clients with metrics of the same name
+ * share the limit.
+ */
+class ConcurrencyLimitMetric {
+  final ConcurrencyLimiter limiter;
+  final Meter rejected;
+  /**
+   * The config key of the method, to name it in rejections.
+   */
+  final String configKey;
+
+  ConcurrencyLimitMetric(final MetricRegistry registry, final Method method,
+      final String dimension, final int initialLimit, final int maxLimit,
+      final Map<String, Metric> registered) {
+    final String name =
+        chooseDimensionedName(dimension, null, false, method, "concurrencyLimit");
+    final Gauge<?> gauge = registry.gauge(name,
+        () -> new LimitGauge(new ConcurrencyLimiter(initialLimit, maxLimit)));
+    registered.put(name, gauge);
+    // another gauge registered under the same name is left alone
+    this.limiter = gauge instanceof LimitGauge ? ((LimitGauge) gauge).limiter
+        : new ConcurrencyLimiter(initialLimit, maxLimit);
+    final String inFlightName = name(name, "inFlight");
+    registered.put(inFlightName,
+        registry.gauge(inFlightName, () -> (Gauge<Integer>) limiter::inFlight));
+    final String rejectedName = name(name, "rejected");
+    this.rejected = registry.meter(rejectedName);
+    registered.put(rejectedName, rejected);
+    this.configKey = Feign.configKey(method.getDeclaringClass(), method);
+  }
+
+  private static class LimitGauge implements Gauge<Integer> {
+    private final ConcurrencyLimiter limiter;
+
+    LimitGauge(final ConcurrencyLimiter limiter) {
+      this.limiter = limiter;
+    }
+
+    @Override
+    public Integer getValue() {
+      return limiter.limit();
+    }
+  }
+}
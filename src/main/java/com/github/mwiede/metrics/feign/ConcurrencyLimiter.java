@@ -0,0 +1,124 @@
+package com.github.mwiede.metrics.feign;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An adaptive limit of the concurrent invocations of a method, in the style of the gradient
+ * algorithm of Netflix' concurrency-limits. The limit follows the ratio of the long-term average
+ * latency to the latest latency: it grows by a small queue allowance while latencies are stable,
+ * and shrinks once latencies rise above the long-term average, before the pools of the caller fill
+ * with blocked invocations. Failed requests, like timeouts, shrink it as well.
+ * <p>
+ * The limit is updated without a lock: a release which finds another one updating skips its
+ * latency, so under contention the limit follows a sample of the latencies, while failed requests
+ * are counted and applied by the next update.
+ */
+class ConcurrencyLimiter {
+
+  /**
+   * Latencies up to this factor of the long-term average are considered stable.
+   */
+  private static final double TOLERANCE = 1.5;
+  private static final double SMOOTHING = 0.2;
+  private static final double BACKOFF = 0.9;
+  private static final int LONG_WINDOW = 600;
+  private static final int MIN_LIMIT = 1;
+
+  private final int maxLimit;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicBoolean updating = new AtomicBoolean();
+  /**
+   * The failed requests not applied to the limit yet.
+   */
+  private final AtomicInteger drops = new AtomicInteger();
+  private volatile int limit;
+
+  /**
+   * Only accessed while {@link #updating} is held.
+   */
+  private double estimatedLimit;
+  private double longRttNanos;
+  private long samples;
+
+  ConcurrencyLimiter(final int initialLimit, final int maxLimit) {
+    this.maxLimit = maxLimit;
+    this.estimatedLimit = initialLimit;
+    this.limit = initialLimit;
+  }
+
+  /**
+   * @return {@code false} if the limit is reached and the invocation must be rejected
+   */
+  boolean tryAcquire() {
+    for (;;) {
+      final int current = inFlight.get();
+      if (current >= limit) {
+        return false;
+      }
+      if (inFlight.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Ends an acquired invocation.
+   *
+   * @param rttNanos the latency of the invocation
+   * @param dropped whether the request failed, like on a timeout
+   */
+  void release(final long rttNanos, final boolean dropped) {
+    final int concurrent = inFlight.getAndDecrement();
+    if (dropped) {
+      drops.incrementAndGet();
+    }
+    if (updating.compareAndSet(false, true)) {
+      try {
+        update(rttNanos, dropped, concurrent);
+      } finally {
+        updating.set(false);
+      }
+    }
+  }
+
+  private void update(final long rttNanos, final boolean dropped, final int concurrent) {
+    final int dropsToApply = drops.getAndSet(0);
+    if (dropsToApply > 0) {
+      estimatedLimit = Math.max(MIN_LIMIT, estimatedLimit * Math.pow(BACKOFF, dropsToApply));
+      limit = (int) estimatedLimit;
+    }
+    if (dropped) {
+      return;
+    }
+
+    samples++;
+    final double window = Math.min(samples, LONG_WINDOW);
+    longRttNanos += (rttNanos - longRttNanos) / window;
+    // recover faster once latencies dropped far below the long-term average
+    if (longRttNanos / Math.max(1, rttNanos) > 2) {
+      longRttNanos *= 0.95;
+    }
+
+    if (concurrent < estimatedLimit / 2) {
+      // the limit is not what bounds the invocations, so latencies say nothing about it
+      return;
+    }
+
+    final double gradient =
+        Math.max(0.5, Math.min(1.0, TOLERANCE * longRttNanos / Math.max(1, rttNanos)));
+    final double queueSize = Math.sqrt(estimatedLimit);
+    final double newLimit = estimatedLimit * gradient + queueSize;
+    estimatedLimit = Math.max(MIN_LIMIT,
+        Math.min(maxLimit, estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+    limit = (int) estimatedLimit;
+  }
+
+  int limit() {
+    return limit;
+  }
+
+  int inFlight() {
+    return inFlight.get();
+  }
+}
@@ -0,0 +1,57 @@
+package com.github.mwiede.metrics.feign;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.github.mwiede.metrics.feign.FeignMetricsInvocationHandlerFactoryDecorator.chooseDimensionedName;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.annotation.Counted;
+
+/**
+ * A class to maintain the metrics for a method annotated with the {@link Counted} annotation.
+ * Unless the annotation is monotonic, the counter is decremented once the invocation is finished,
+ * so it shows the invocations in flight, and a gauge shows its highest value since the last
+ * report.
+ */
+class CounterMetric {
+  public final Counter counter;
+  public final boolean monotonic;
+  private final HighWaterMarkGauge highWaterMark;
+
+  public CounterMetric(final MetricRegistry registry, final Method method,
+      final String dimension, final Counted counted, final Map<String, Metric> registered) {
+    final String name =
+        chooseDimensionedName(dimension, counted.name(), counted.absolute(), method, "Counted");
+    this.counter = registry.counter(name);
+    this.monotonic = counted.monotonic();
+    registered.put(name, counter);
+    if (monotonic) {
+      this.highWaterMark = null;
+    } else {
+      final String gaugeName = name(name, "highWaterMark");
+      final Gauge<?> gauge = registry.gauge(gaugeName, () -> new HighWaterMarkGauge(counter));
+      registered.put(gaugeName, gauge);
+      // another gauge registered under the same name is left alone
+      this.highWaterMark =
+          gauge instanceof HighWaterMarkGauge ? (HighWaterMarkGauge) gauge : null;
+    }
+  }
+
+  void begin() {
+    counter.inc();
+    if (highWaterMark != null) {
+      highWaterMark.update(counter.getCount());
+    }
+  }
+
+  void end() {
+    if (!monotonic) {
+      counter.dec();
+    }
+  }
+}
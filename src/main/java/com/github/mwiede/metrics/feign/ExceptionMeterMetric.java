@@ -0,0 +1,82 @@
+package com.github.mwiede.metrics.feign;
+
+import static com.github.mwiede.metrics.feign.FeignMetricsInvocationHandlerFactoryDecorator.chooseDimensionedName;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.annotation.ExceptionMetered;
+
+/**
+ * A class to maintain the metric for a method annotated with the {@link ExceptionMetered}
+ * annotation, which needs to maintain both a meter and a cause for which the meter should be
+ * updated. The meter is marked if any exception of the cause chain is an instance of the cause.
+ * Whether an exception class matches is cached per class.
+ */
+class ExceptionMeterMetric {
+  /**
+   * Bounds the walk of cause chains, which may contain cycles.
+   */
+  private static final int MAX_CAUSE_DEPTH = 32;
+
+  public final Meter meter;
+  public final Class<? extends Throwable> cause;
+  final String metricName;
+
+  private final ClassValue<Boolean> matches = new ClassValue<Boolean>() {
+    @Override
+    protected Boolean computeValue(final Class<?> type) {
+      return cause.isAssignableFrom(type);
+    }
+  };
+
+  /**
+   * The meters of the classes of root causes, or {@code null} if they are not metered.
+   */
+  private final RootCauseMeters rootCauses;
+
+  public ExceptionMeterMetric(final MetricRegistry registry, final Method method,
+      final String dimension, final ExceptionMetered exceptionMetered, final int maxRootCauses,
+      final Map<String, Metric> registered) {
+    this.metricName =
+        chooseDimensionedName(dimension, exceptionMetered.name(), exceptionMetered.absolute(),
+            method, ExceptionMetered.DEFAULT_NAME_SUFFIX);
+    this.meter = registry.meter(metricName);
+    registered.put(metricName, meter);
+    this.cause = exceptionMetered.cause();
+    this.rootCauses =
+        maxRootCauses > 0 ? new RootCauseMeters(registry, metricName, maxRootCauses) : null;
+  }
+
+  void mark(final Throwable e) {
+    boolean matched = false;
+    Throwable root = e;
+    for (int depth = 0; depth < MAX_CAUSE_DEPTH; depth++) {
+      matched = matched || matches.get(root.getClass());
+      final Throwable next = root.getCause();
+      if (next == null || next == root || (matched && rootCauses == null)) {
+        break;
+      }
+      root = next;
+    }
+    if (matched) {
+      meter.mark();
+    }
+    if (rootCauses != null) {
+      rootCauses.mark(root.getClass());
+    }
+  }
+
+  /**
+   * Removes the lazily registered meters of root causes from the registry, once the last metrics
+   * of this name are released.
+   */
+  void removeRootCauseMeters() {
+    if (rootCauses != null) {
+      rootCauses.remove();
+    }
+  }
+}
@@ -0,0 +1,117 @@
+package com.github.mwiede.metrics.feign;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import feign.Client;
+import feign.Request;
+import feign.Request.Options;
+import feign.Response;
+import feign.Util;
+
+/**
+ * A decorator of a {@link Client}, which answers GET requests of methods annotated with
+ * {@link ResponseCached} from their {@link ResponseCache}. Fresh responses are returned without a
+ * request, expired responses with an {@code ETag} are revalidated with {@code If-None-Match}, and
+ * other requests are sent and their successful responses cached, unless marked {@code no-store}.
+ * Each request gets its own copy of the cached response. The decorator is placed outside the
+ * metered transport, so responses from the cache are neither timed nor metered as received.
+ */
+class FeignCachingClientDecorator implements Client {
+
+  private static final int OK = 200;
+  private static final int NOT_MODIFIED = 304;
+
+  private final Client delegate;
+  private final MetricsConfig config;
+
+  FeignCachingClientDecorator(final Client delegate, final MetricsConfig config) {
+    this.delegate = delegate;
+    this.config = config;
+  }
+
+  @Override
+  public Response execute(final Request request, final Options options) throws IOException {
+    if (request.httpMethod() != Request.HttpMethod.GET) {
+      return delegate.execute(request, options);
+    }
+    final MethodMetrics metrics = FeignMetricsClientDecorator.methodMetrics(config.index, request);
+    final ResponseCache cache = metrics != null ? metrics.cache : null;
+    if (cache == null) {
+      return delegate.execute(request, options);
+    }
+
+    final RequestKey key = cache.key(request);
+    final ResponseCache.Entry entry = cache.get(key);
+    if (entry != null && cache.isFresh(entry)) {
+      cache.hits.mark();
+      return copy(entry.response, request);
+    }
+    if (entry != null && entry.etag != null) {
+      final Response response = delegate.execute(revalidation(request, entry.etag), options);
+      if (response.status() == NOT_MODIFIED) {
+        Util.ensureClosed(response);
+        cache.refresh(entry);
+        cache.revalidations.mark();
+        return copy(entry.response, request);
+      }
+      cache.misses.mark();
+      return store(cache, key, response, request);
+    }
+    cache.misses.mark();
+    return store(cache, key, delegate.execute(request, options), request);
+  }
+
+  private static Response store(final ResponseCache cache, final RequestKey key,
+      final Response response, final Request request) throws IOException {
+    if (response.status() != OK || contains(response, "Cache-Control", "no-store")) {
+      return response.request() == request ? response : copy(response, request);
+    }
+    final byte[] body;
+    try {
+      body = response.body() != null ? Util.toByteArray(response.body().asInputStream())
+          : new byte[0];
+    } finally {
+      Util.ensureClosed(response);
+    }
+    final Response buffered = response.toBuilder().request(request).body(body).build();
+    cache.put(key, buffered, body, header(response, "ETag"));
+    return copy(buffered, request);
+  }
+
+  /**
+   * @return the request, asking to send the response only if it does not match the given ETag
+   */
+  private static Request revalidation(final Request request, final String etag) {
+    final Map<String, Collection<String>> headers = new LinkedHashMap<>(request.headers());
+    headers.put("If-None-Match", Collections.singletonList(etag));
+    return Request.create(request.httpMethod(), request.url(), headers, request.body(),
+        request.charset(), request.requestTemplate());
+  }
+
+  private static Response copy(final Response response, final Request request) {
+    return response.toBuilder().request(request).build();
+  }
+
+  private static String header(final Response response, final String name) {
+    final Collection<String> values = response.headers().get(name);
+    return values == null || values.isEmpty() ? null : values.iterator().next();
+  }
+
+  private static boolean contains(final Response response, final String name,
+      final String directive) {
+    final Collection<String> values = response.headers().get(name);
+    if (values != null) {
+      for (final String value : values) {
+        if (value.toLowerCase(Locale.ROOT).contains(directive)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,139 @@
+package com.github.mwiede.metrics.feign;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import feign.Client;
+import feign.Request;
+import feign.Request.Options;
+import feign.Response;
+import feign.Util;
+
+/**
+ * A decorator of a {@link Client}, which coalesces identical GET and HEAD requests in flight: while
+ * a request is executed, identical requests wait for its response instead of being sent, and each
+ * of them gets a copy of the response. Requests are identical if their method, url and the values
+ * of the configured headers are equal.
+ * <p>
+ * The body of a response is only read into memory if identical requests are waiting for it, so that
+ * it can be replayed to them. They wait for at most the read timeout of their options.
+ */
+class FeignCoalescingClientDecorator implements Client {
+
+  private final Client delegate;
+  private final MetricsConfig config;
+  private final ConcurrentMap<RequestKey, InFlight> inFlight = new ConcurrentHashMap<>();
+
+  FeignCoalescingClientDecorator(final Client delegate, final MetricsConfig config) {
+    this.delegate = delegate;
+    this.config = config;
+  }
+
+  @Override
+  public Response execute(final Request request, final Options options) throws IOException {
+    if (request.httpMethod() != Request.HttpMethod.GET
+        && request.httpMethod() != Request.HttpMethod.HEAD) {
+      return delegate.execute(request, options);
+    }
+    final MethodMetrics metrics = FeignMetricsClientDecorator.methodMetrics(config.index, request);
+    final CoalescingMeters meters = metrics != null ? metrics.coalescing : null;
+
+    final RequestKey key = new RequestKey(request, config.coalescingHeaders);
+    final InFlight created = new InFlight();
+    // joining is atomic with the removal by the originating request, so no follower is missed
+    final InFlight existing = inFlight.compute(key, (k, current) -> {
+      if (current == null) {
+        return created;
+      }
+      current.followers++;
+      return current;
+    });
+    if (existing != created) {
+      if (meters != null) {
+        meters.coalesced.mark();
+      }
+      return copy(await(existing.response, options), request);
+    }
+
+    if (meters != null) {
+      meters.originating.mark();
+    }
+    final Response response;
+    try {
+      response = delegate.execute(request, options);
+    } catch (final IOException | RuntimeException | Error e) {
+      inFlight.remove(key, created);
+      created.response.completeExceptionally(e);
+      throw e;
+    }
+    inFlight.remove(key, created);
+    if (created.followers == 0) {
+      return response;
+    }
+    try {
+      final Response buffered = buffer(response);
+      created.response.complete(buffered);
+      return copy(buffered, request);
+    } catch (final IOException | RuntimeException | Error e) {
+      created.response.completeExceptionally(e);
+      throw e;
+    }
+  }
+
+  private static Response buffer(final Response response) throws IOException {
+    if (response.body() == null) {
+      return response;
+    }
+    try {
+      return response.toBuilder()
+          .body(Util.toByteArray(response.body().asInputStream()))
+          .build();
+    } finally {
+      Util.ensureClosed(response);
+    }
+  }
+
+  /**
+   * @return a copy of the buffered response for the given request
+   */
+  private static Response copy(final Response buffered, final Request request) {
+    return buffered.toBuilder().request(request).build();
+  }
+
+  private static Response await(final CompletableFuture<Response> response, final Options options)
+      throws IOException {
+    try {
+      return response.get(options.readTimeoutMillis(), TimeUnit.MILLISECONDS);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while waiting for a coalesced response");
+    } catch (final TimeoutException e) {
+      throw new SocketTimeoutException("timed out waiting for a coalesced response");
+    } catch (final ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw (Error) cause;
+    }
+  }
+
+  /**
+   * A request in flight and the number of identical requests waiting for its response, which is only
+   * changed while the request is mapped.
+   */
+  private static final class InFlight {
+    private final CompletableFuture<Response> response = new CompletableFuture<>();
+    private volatile int followers;
+  }
+}
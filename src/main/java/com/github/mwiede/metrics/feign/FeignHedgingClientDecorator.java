@@ -0,0 +1,166 @@
+package com.github.mwiede.metrics.feign;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.codahale.metrics.Meter;
+
+import feign.Client;
+import feign.Request;
+import feign.Request.Options;
+import feign.Response;
+import feign.Util;
+
+/**
+ * A decorator of a {@link Client}, which hedges idempotent requests: once a request took longer
+ * than the configured quantile of the latency of its method, the same request is sent again, and
+ * whichever succeeds first is returned. The other response is closed once it arrives. Hedges are
+ * limited by a budget per method, which grows by a share of each request.
+ * <p>
+ * Both requests are sent on the configured executor, while the invoking thread waits for the first
+ * successful response, at most for the read timeout after the hedge was due. Requests of methods
+ * whose latency is not known yet are not hedged, and sent by the invoking thread itself.
+ */
+class FeignHedgingClientDecorator implements Client {
+
+  private final Client delegate;
+  private final MetricsConfig config;
+
+  FeignHedgingClientDecorator(final Client delegate, final MetricsConfig config) {
+    this.delegate = delegate;
+    this.config = config;
+  }
+
+  @Override
+  public Response execute(final Request request, final Options options) throws IOException {
+    final MethodMetrics metrics = FeignMetricsClientDecorator.methodMetrics(config.index, request);
+    final HedgeMetric hedge = metrics != null ? metrics.hedge : null;
+    if (hedge == null || !(hedge.idempotent || isIdempotent(request.httpMethod()))) {
+      return delegate.execute(request, options);
+    }
+    hedge.deposit();
+    final long thresholdNanos = hedge.thresholdNanos();
+    if (thresholdNanos == Long.MAX_VALUE) {
+      return delegate.execute(request, options);
+    }
+
+    final Attempts attempts = new Attempts(request, options);
+    if (!attempts.send(null)) {
+      return delegate.execute(request, options);
+    }
+    Response response = attempts.await(thresholdNanos);
+    if (response == null) {
+      if (hedge.withdraw()) {
+        hedge.sent.mark();
+        attempts.send(hedge.won);
+      } else {
+        hedge.budgetExhausted.mark();
+      }
+      response = attempts.await(TimeUnit.MILLISECONDS.toNanos(options.readTimeoutMillis()));
+    }
+    if (response == null) {
+      // responses arriving later are closed
+      attempts.result.completeExceptionally(
+          new SocketTimeoutException("timed out waiting for a hedged response"));
+      response = attempts.await(0);
+    }
+    return response;
+  }
+
+  private static boolean isIdempotent(final Request.HttpMethod method) {
+    return method == Request.HttpMethod.GET || method == Request.HttpMethod.HEAD
+        || method == Request.HttpMethod.OPTIONS;
+  }
+
+  /**
+   * The attempts of a request, whose result is the first successful response, or the first failure
+   * once all attempts failed.
+   */
+  private final class Attempts {
+    final CompletableFuture<Response> result = new CompletableFuture<>();
+    private final Request request;
+    private final Options options;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    Attempts(final Request request, final Options options) {
+      this.request = request;
+      this.options = options;
+    }
+
+    /**
+     * @param won the meter to mark if the attempt responds first, if any
+     * @return {@code false} if the executor rejected the attempt
+     */
+    boolean send(final Meter won) {
+      pending.incrementAndGet();
+      try {
+        config.hedgeExecutor.execute(() -> attempt(won));
+        return true;
+      } catch (final RejectedExecutionException e) {
+        settle();
+        return false;
+      }
+    }
+
+    private void attempt(final Meter won) {
+      final Response response;
+      try {
+        response = delegate.execute(request, options);
+      } catch (final IOException | RuntimeException | Error e) {
+        failure.compareAndSet(null, e);
+        settle();
+        return;
+      }
+      if (result.complete(response)) {
+        if (won != null) {
+          won.mark();
+        }
+      } else {
+        Util.ensureClosed(response);
+      }
+    }
+
+    private void settle() {
+      if (pending.decrementAndGet() == 0 && failure.get() != null) {
+        result.completeExceptionally(failure.get());
+      }
+    }
+
+    /**
+     * @return the first successful response, or {@code null} if none arrived within the given time
+     */
+    Response await(final long timeoutNanos) throws IOException {
+      try {
+        return result.get(timeoutNanos, TimeUnit.NANOSECONDS);
+      } catch (final TimeoutException e) {
+        return null;
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        final InterruptedIOException interrupted =
+            new InterruptedIOException("interrupted while waiting for a hedged response");
+        if (result.completeExceptionally(interrupted)) {
+          throw interrupted;
+        }
+        return await(0);
+      } catch (final ExecutionException e) {
+        final Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        throw (Error) cause;
+      }
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package com.github.mwiede.metrics.feign;
+
+import java.io.IOException;
+
+import com.codahale.metrics.MetricRegistry;
+
+import feign.Client;
+import feign.Request;
+import feign.Request.Options;
+import feign.RequestTemplate;
+import feign.Response;
+
+/**
+ * A decorator of a {@link Client}, which sends the requests of a {@link LoadBalancedTarget} to the
+ * endpoint chosen by its {@link LoadBalancer}, and feeds the latency of the response headers and
+ * failures back into it. Responses with a status of 500 or above count as failures. Requests of
+ * other targets are passed on unchanged.
+ */
+class FeignLoadBalancingClientDecorator implements Client {
+
+  private static final int SERVER_ERROR = 500;
+
+  private final Client delegate;
+  private final MetricRegistry metricRegistry;
+
+  FeignLoadBalancingClientDecorator(final Client delegate, final MetricRegistry metricRegistry) {
+    this.delegate = delegate;
+    this.metricRegistry = metricRegistry;
+  }
+
+  @Override
+  public Response execute(final Request request, final Options options) throws IOException {
+    final RequestTemplate template = request.requestTemplate();
+    if (template == null || !(template.feignTarget() instanceof LoadBalancedTarget)) {
+      return delegate.execute(request, options);
+    }
+    final LoadBalancedTarget<?> target = (LoadBalancedTarget<?>) template.feignTarget();
+    if (!isBelow(request.url(), target.url())) {
+      // an absolute url given to the method
+      return delegate.execute(request, options);
+    }
+    final LoadBalancer balancer = target.balancer;
+    balancer.register(metricRegistry);
+
+    final LoadBalancer.Endpoint endpoint = balancer.choose();
+    final Request routed = Request.create(request.httpMethod(),
+        endpoint.url + request.url().substring(target.url().length()), request.headers(),
+        request.body(), request.charset(), template);
+    final long start = balancer.clock.getTick();
+    boolean failed = true;
+    try {
+      final Response response = delegate.execute(routed, options);
+      failed = response.status() >= SERVER_ERROR;
+      return response;
+    } finally {
+      endpoint.release(balancer.clock.getTick() - start, failed);
+    }
+  }
+
+  /**
+   * @return whether the url is the base url or one of its paths, so {@code http://items} does not
+   *         match {@code http://items2/}
+   */
+  static boolean isBelow(final String url, final String base) {
+    if (!url.startsWith(base)) {
+      return false;
+    }
+    if (url.length() == base.length()) {
+      return true;
+    }
+    final char next = url.charAt(base.length());
+    return next == '/' || next == '?' || next == '#';
+  }
+}
@@ -0,0 +1,75 @@
+package com.github.mwiede.metrics.feign;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import feign.AsyncClient;
+import feign.Request;
+import feign.Request.Options;
+import feign.Response;
+
+/**
+ * The asynchronous counterpart of {@link FeignMetricsClientDecorator}. The response meters are
+ * marked from a completion callback of the returned future, so no thread is blocked.
+ * <p>
+ * If the delegate runs requests on an executor decorated with
+ * {@link FeignMetricsExecutorServiceDecorator}, the time a request waits for an executor thread is
+ * recorded as well.
+ */
+public class FeignMetricsAsyncClientDecorator<C> implements AsyncClient<C> {
+
+  private final AsyncClient<C> delegate;
+  private final MetricsConfig config;
+
+  public FeignMetricsAsyncClientDecorator(final AsyncClient<C> client) {
+    this(client, MetricsConfig.DEFAULT);
+  }
+
+  FeignMetricsAsyncClientDecorator(final AsyncClient<C> client, final MetricsConfig config) {
+    this.delegate = client;
+    this.config = config;
+  }
+
+  @Override
+  public CompletableFuture<Response> execute(final Request request, final Options options,
+      final Optional<C> requestContext) {
+
+    final MethodMetrics metrics = FeignMetricsClientDecorator.methodMetrics(config.index, request);
+
+    FeignMetricsClientDecorator.markRequest(metrics, request);
+
+    final long start = System.nanoTime();
+
+    final CompletableFuture<Response> future;
+    if (metrics != null && metrics.queueWaitTimer != null) {
+      FeignMetricsExecutorServiceDecorator.QUEUE_WAIT_TIMER.set(metrics.queueWaitTimer);
+      try {
+        future = delegate.execute(request, options, requestContext);
+      } finally {
+        FeignMetricsExecutorServiceDecorator.QUEUE_WAIT_TIMER.remove();
+      }
+    } else {
+      future = delegate.execute(request, options, requestContext);
+    }
+
+    if (metrics != null && metrics.phaseTimers != null) {
+      future.whenComplete((response, throwable) -> {
+        if (response != null) {
+          metrics.phaseTimers.transport.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+      });
+    }
+
+    if (metrics != null && metrics.responseMeters != null) {
+      future.whenComplete(
+          (response, throwable) -> FeignMetricsClientDecorator.markResponse(metrics, response));
+    }
+
+    if (metrics != null && (metrics.responseSize != null || metrics.phaseTimers != null)) {
+      return future.thenApply(response -> FeignMetricsClientDecorator.meterBody(metrics, response));
+    }
+    return future;
+  }
+
+}
@@ -1,8 +1,9 @@
 package com.github.mwiede.metrics.feign;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
-import com.github.mwiede.metrics.feign.FeignMetricsInvocationHandlerFactoryDecorator.ResponseMeterMetric;
+import com.codahale.metrics.Histogram;
 
 import feign.Client;
 import feign.Request;
@@ -12,26 +13,99 @@ import feign.Response;
 public class FeignMetricsClientDecorator implements Client {
 
   private final Client delegate;
+  private final MetricsConfig config;
 
   public FeignMetricsClientDecorator(final Client client) {
+    this(client, MetricsConfig.DEFAULT);
+  }
+
+  FeignMetricsClientDecorator(final Client client, final MetricsConfig config) {
     this.delegate = client;
+    this.config = config;
   }
 
   @Override
   public Response execute(final Request request, final Options options) throws IOException {
 
-    final ResponseMeterMetric metric = FeignMetricsInvocationHandlerFactoryDecorator.ACTUAL_METRIC.get();
+    final MethodMetrics metrics = methodMetrics(config.index, request);
 
-    final Response response = delegate.execute(request, options);
+    markRequest(metrics, request);
 
-    if (metric != null && response != null) {
-      final int responseStatus = response.status() / 100;
-      if (responseStatus >= 1 && responseStatus <= 5) {
-        metric.meters.get(responseStatus - 1).mark();
+    final Response response;
+    if (metrics != null && (metrics.phaseTimers != null || metrics.retryMetrics != null)) {
+      final InvocationRetries retries =
+          metrics.retryMetrics != null ? InvocationRetries.current() : null;
+      final long start = System.nanoTime();
+      try {
+        response = delegate.execute(request, options);
+      } finally {
+        if (retries != null) {
+          retries.attempted(System.nanoTime() - start);
+        }
       }
+      if (metrics.phaseTimers != null) {
+        metrics.phaseTimers.transport.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      }
+    } else {
+      response = delegate.execute(request, options);
+    }
+
+    markResponse(metrics, response);
+
+    return meterBody(metrics, response);
+  }
+
+  /**
+   * @return the metrics of the invoked method, taken from the index if given or the threadlocal
+   *         otherwise.
+   */
+  static MethodMetrics methodMetrics(final MethodMetricsIndex index, final Request request) {
+    if (index == null) {
+      return FeignMetricsInvocationHandlerFactoryDecorator.ACTUAL_METRIC.get();
     }
+    return index.get(request);
+  }
 
-    return response;
+  static void markRequest(final MethodMetrics metrics, final Request request) {
+    if (metrics != null && metrics.requestSize != null) {
+      metrics.requestSize.update(request.length());
+    }
+  }
+
+  /**
+   * Records the size of the response body from its length, if known. Otherwise, or if the reading of
+   * the body is timed, the body is decorated to meter it while it is read.
+   */
+  static Response meterBody(final MethodMetrics metrics, final Response response) {
+    if (metrics == null || response == null
+        || (metrics.responseSize == null && metrics.phaseTimers == null)) {
+      return response;
+    }
+    final Response.Body body = response.body();
+    if (body == null) {
+      if (metrics.responseSize != null) {
+        metrics.responseSize.update(0);
+      }
+      return response;
+    }
+    Histogram responseSize = metrics.responseSize;
+    if (responseSize != null && body.length() != null) {
+      responseSize.update(body.length());
+      responseSize = null;
+    }
+    if (responseSize == null && metrics.phaseTimers == null) {
+      return response;
+    }
+    return response.toBuilder().body(
+        new FeignMetricsResponseBodyDecorator(body, responseSize, metrics.phaseTimers)).build();
+  }
+
+  static void markResponse(final MethodMetrics metrics, final Response response) {
+    final ResponseMeterMetric metric = metrics == null ? null : metrics.responseMeters;
+
+    if (metric != null && response != null) {
+      metric.mark(response.status());
+    }
   }
 
 }
@@ -0,0 +1,42 @@
+package com.github.mwiede.metrics.feign;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.concurrent.TimeUnit;
+
+import feign.FeignException;
+import feign.Response;
+import feign.codec.DecodeException;
+import feign.codec.Decoder;
+
+/**
+ * A {@link Decoder} which records the time spent decoding the body of a response in the "decode"
+ * phase timer of the invoked method.
+ */
+class FeignMetricsDecoderDecorator implements Decoder {
+
+  private final Decoder delegate;
+  private final MetricsConfig config;
+
+  FeignMetricsDecoderDecorator(final Decoder decoder, final MetricsConfig config) {
+    this.delegate = decoder;
+    this.config = config;
+  }
+
+  @Override
+  public Object decode(final Response response, final Type type)
+      throws IOException, DecodeException, FeignException {
+    final MethodMetrics metrics = response.request() != null
+        ? FeignMetricsClientDecorator.methodMetrics(config.index, response.request())
+        : null;
+    if (metrics == null || metrics.phaseTimers == null) {
+      return delegate.decode(response, type);
+    }
+    final long start = System.nanoTime();
+    try {
+      return delegate.decode(response, type);
+    } finally {
+      metrics.phaseTimers.decode.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+}
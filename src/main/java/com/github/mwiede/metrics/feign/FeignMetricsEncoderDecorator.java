@@ -0,0 +1,41 @@
+package com.github.mwiede.metrics.feign;
+
+import java.lang.reflect.Type;
+import java.util.concurrent.TimeUnit;
+
+import feign.RequestTemplate;
+import feign.codec.EncodeException;
+import feign.codec.Encoder;
+
+/**
+ * An {@link Encoder} which records the time spent encoding the body of a request in the "encode"
+ * phase timer of the invoked method.
+ */
+class FeignMetricsEncoderDecorator implements Encoder {
+
+  private final Encoder delegate;
+  private final MetricsConfig config;
+
+  FeignMetricsEncoderDecorator(final Encoder encoder, final MetricsConfig config) {
+    this.delegate = encoder;
+    this.config = config;
+  }
+
+  @Override
+  public void encode(final Object object, final Type bodyType, final RequestTemplate template)
+      throws EncodeException {
+    final MethodMetrics metrics = config.index != null
+        ? config.index.get(template.feignTarget(), template.methodMetadata())
+        : FeignMetricsInvocationHandlerFactoryDecorator.ACTUAL_METRIC.get();
+    if (metrics == null || metrics.phaseTimers == null) {
+      delegate.encode(object, bodyType, template);
+      return;
+    }
+    final long start = System.nanoTime();
+    try {
+      delegate.encode(object, bodyType, template);
+    } finally {
+      metrics.phaseTimers.encode.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package com.github.mwiede.metrics.feign;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Timer;
+
+/**
+ * An {@link ExecutorService} to be passed to {@link feign.AsyncClient.Default}, which records the
+ * time a request waits in the queue of the executor until a thread picks it up. The timer is the
+ * "queueWait" timer of the invoked method, which {@link FeignMetricsAsyncClientDecorator} hands over
+ * while it submits the request. This happens on the submitting thread, so the threadlocal is never
+ * read from another thread.
+ */
+public class FeignMetricsExecutorServiceDecorator extends AbstractExecutorService {
+
+  static final ThreadLocal<Timer> QUEUE_WAIT_TIMER = new ThreadLocal<Timer>();
+
+  private final ExecutorService delegate;
+
+  public FeignMetricsExecutorServiceDecorator(final ExecutorService executorService) {
+    this.delegate = executorService;
+  }
+
+  @Override
+  public void execute(final Runnable command) {
+    final Timer timer = QUEUE_WAIT_TIMER.get();
+    if (timer == null) {
+      delegate.execute(command);
+      return;
+    }
+    final long submitted = System.nanoTime();
+    delegate.execute(() -> {
+      timer.update(System.nanoTime() - submitted, TimeUnit.NANOSECONDS);
+      command.run();
+    });
+  }
+
+  @Override
+  public void shutdown() {
+    delegate.shutdown();
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    return delegate.shutdownNow();
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return delegate.isShutdown();
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return delegate.isTerminated();
+  }
+
+  @Override
+  public boolean awaitTermination(final long timeout, final TimeUnit unit)
+      throws InterruptedException {
+    return delegate.awaitTermination(timeout, unit);
+  }
+}
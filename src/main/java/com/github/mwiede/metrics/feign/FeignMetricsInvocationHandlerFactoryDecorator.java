@@ -2,32 +2,39 @@ package com.github.mwiede.metrics.feign;
 
 import static com.codahale.metrics.MetricRegistry.name;
 
-import java.lang.annotation.Annotation;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Function;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistry.MetricSupplier;
 import com.codahale.metrics.Timer;
+import com.codahale.metrics.annotation.Counted;
 import com.codahale.metrics.annotation.ExceptionMetered;
 import com.codahale.metrics.annotation.Metered;
-import com.codahale.metrics.annotation.ResponseMetered;
 import com.codahale.metrics.annotation.Timed;
 
 import feign.InvocationHandlerFactory;
+import feign.RetryableException;
 import feign.Target;
 
 /**
  * A decorator class, which takes all methods given in
  * {@link InvocationHandlerFactory#create(Target, Map)} and initializes a metric for each
- * annotations of {@link Timed}, {@link Metered} or {@link ExceptionMetered} into the global
- * {@link MetricRegistry}. Additionally, it triggers the metric during invocation of the
+ * annotations of {@link Timed}, {@link Metered}, {@link Counted} or {@link ExceptionMetered} into
+ * the global {@link MetricRegistry}. Additionally, it triggers the metric during invocation of the
  * {@link feign.InvocationHandlerFactory.MethodHandler}s.
  * <p>
  * This class is inspired by
@@ -36,248 +43,508 @@ import feign.Target;
 public class FeignMetricsInvocationHandlerFactoryDecorator implements InvocationHandlerFactory {
 
   static final ThreadLocal<Method> ACTUAL_METHOD = new ThreadLocal<Method>();
-  static final ThreadLocal<ResponseMeterMetric> ACTUAL_METRIC =
-      new ThreadLocal<ResponseMeterMetric>();
+  static final ThreadLocal<MethodMetrics> ACTUAL_METRIC = new ThreadLocal<MethodMetrics>();
 
   private final MetricRegistry metricRegistry;
   private final InvocationHandlerFactory delegate;
 
-  private final ConcurrentMap<Method, Timer> timers = new ConcurrentHashMap<>();
-  private final ConcurrentMap<Method, Meter> meters = new ConcurrentHashMap<>();
-  private final ConcurrentMap<Method, ExceptionMeterMetric> exceptionMeters =
-      new ConcurrentHashMap<>();
-  private final ConcurrentMap<Method, ResponseMeterMetric> responseMeters =
+  private final MetricsConfig config;
+
+  /**
+   * The metrics of each method by the dimension of the target, which is empty if metrics are not
+   * dimensioned.
+   */
+  private final ConcurrentMap<String, ConcurrentMap<Method, MethodMetrics>> methodMetrics =
       new ConcurrentHashMap<>();
 
   public FeignMetricsInvocationHandlerFactoryDecorator(final InvocationHandlerFactory original,
       final MetricRegistry metricRegistry) {
-    this.delegate = original;
-    this.metricRegistry = metricRegistry;
-  }
-
-  /**
-   * A private class to maintain the metric for a method annotated with the {@link ExceptionMetered}
-   * annotation, which needs to maintain both a meter and a cause for which the meter should be
-   * updated.
-   */
-  private static class ExceptionMeterMetric {
-    public final Meter meter;
-    public final Class<? extends Throwable> cause;
-
-    public ExceptionMeterMetric(final MetricRegistry registry, final Method method,
-        final ExceptionMetered exceptionMetered) {
-      final String name =
-          chooseName(exceptionMetered.name(), exceptionMetered.absolute(), method,
-              ExceptionMetered.DEFAULT_NAME_SUFFIX);
-      this.meter = registry.meter(name);
-      this.cause = exceptionMetered.cause();
-    }
+    this(original, metricRegistry, MetricsConfig.DEFAULT);
   }
 
   /**
-   * A private class to maintain the metrics for a method annotated with the {@link ResponseMetered}
-   * annotation, which needs to maintain meters for different response codes
+   * @param config if it contains an index, the metrics of each method are published into it instead
+   *        of the threadlocals {@link #ACTUAL_METHOD} and {@link #ACTUAL_METRIC}.
    */
-  static class ResponseMeterMetric {
-    public final List<Meter> meters;
-
-    public ResponseMeterMetric(final MetricRegistry registry, final Method method,
-        final ResponseMetered responseMetered) {
-      final String metricName =
-          chooseName(responseMetered.name(), responseMetered.absolute(), method);
-      this.meters =
-          Collections.unmodifiableList(Arrays.asList(
-              registry.meter(name(metricName, "1xx-responses")), // 1xx
-              registry.meter(name(metricName, "2xx-responses")), // 2xx
-              registry.meter(name(metricName, "3xx-responses")), // 3xx
-              registry.meter(name(metricName, "4xx-responses")), // 4xx
-              registry.meter(name(metricName, "5xx-responses")) // 5xx
-              ));
-    }
+  FeignMetricsInvocationHandlerFactoryDecorator(final InvocationHandlerFactory original,
+      final MetricRegistry metricRegistry, final MetricsConfig config) {
+    this.delegate = original;
+    this.metricRegistry = metricRegistry;
+    this.config = config;
   }
 
   /**
    * A decorator, which triggers certain metrics, if found.
    */
-  private static class MethodHandlerDecorator implements MethodHandler {
+  static class MethodHandlerDecorator implements MethodHandler {
+
+    private static final AtomicReferenceFieldUpdater<MethodHandlerDecorator, MethodMetrics> METRICS =
+        AtomicReferenceFieldUpdater.newUpdater(MethodHandlerDecorator.class, MethodMetrics.class,
+            "metrics");
 
-    private final Method method;
     private final MethodHandler methodHandler;
-    private final ConcurrentMap<Method, Meter> meters;
-    private final ConcurrentMap<Method, Timer> timers;
-    private final ConcurrentMap<Method, ExceptionMeterMetric> exceptionMeters;
-    private final ConcurrentMap<Method, ResponseMeterMetric> responseMeters;
-    private Timer.Context context = null;
-
-    public MethodHandlerDecorator(final Method method, final MethodHandler methodHandler,
-        final ConcurrentMap<Method, Meter> meters,
-        final ConcurrentMap<Method, ExceptionMeterMetric> exceptionMeters,
-        final ConcurrentMap<Method, Timer> timers,
-        final ConcurrentMap<Method, ResponseMeterMetric> responseMeters) {
-      this.method = method;
+    private final Method method;
+    private final boolean useThreadLocal;
+    /**
+     * The client this handler belongs to, if the lifecycle of metrics is managed.
+     */
+    private final MetricsLifecycle.Registration registration;
+    /**
+     * Registers the metrics on the first invocation if they are registered lazily and the lifecycle
+     * is not managed, otherwise {@code null}.
+     */
+    private final Function<Method, MethodMetrics> initializer;
+    /**
+     * {@code null} until the first invocation if metrics are registered lazily. Otherwise only
+     * replaced with the metrics the {@link MetricsLifecycle} registered again, once they were
+     * evicted.
+     */
+    private volatile MethodMetrics metrics;
+
+    public MethodHandlerDecorator(final MethodHandler methodHandler, final MethodMetrics metrics,
+        final boolean useThreadLocal, final MetricsLifecycle.Registration registration) {
+      this(methodHandler, metrics.method, metrics, useThreadLocal, registration, null);
+    }
+
+    MethodHandlerDecorator(final MethodHandler methodHandler, final Method method,
+        final MethodMetrics metrics, final boolean useThreadLocal,
+        final MetricsLifecycle.Registration registration,
+        final Function<Method, MethodMetrics> initializer) {
       this.methodHandler = methodHandler;
-      this.meters = meters;
-      this.exceptionMeters = exceptionMeters;
-      this.timers = timers;
-      this.responseMeters = responseMeters;
+      this.method = method;
+      this.metrics = metrics;
+      this.useThreadLocal = useThreadLocal;
+      this.registration = registration;
+      this.initializer = initializer;
     }
 
     @Override
     public Object invoke(final Object[] argv) throws Throwable {
+      MethodMetrics metrics = this.metrics;
+      if (registration != null) {
+        if (metrics == null || metrics.evicted) {
+          metrics = registration.revive(method);
+          this.metrics = metrics;
+        } else if (!metrics.touched) {
+          metrics.touched = true;
+        }
+      } else if (metrics == null) {
+        // racing first invocations may both register, the registry returns the same metrics
+        final MethodMetrics initialized = initializer.apply(method);
+        metrics = METRICS.compareAndSet(this, null, initialized) ? initialized : this.metrics;
+      }
+
+      final ConcurrencyLimitMetric concurrencyLimit = metrics.concurrencyLimit;
+      if (concurrencyLimit != null && !concurrencyLimit.limiter.tryAcquire()) {
+        concurrencyLimit.rejected.mark();
+        final ConcurrencyLimitExceededException rejected = new ConcurrencyLimitExceededException(
+            concurrencyLimit.configKey, concurrencyLimit.limiter.limit());
+        if (metrics.async) {
+          final CompletableFuture<Object> future = new CompletableFuture<>();
+          future.completeExceptionally(rejected);
+          return future;
+        }
+        throw rejected;
+      }
+      boolean limited = concurrencyLimit != null;
+      Throwable failure = null;
+
+      final BufferedRecording.MethodBuffer buffer = metrics.buffer;
+      boolean timing = false;
+      // the latency of the timer is also the one of the concurrency limit
+      long start = limited ? System.nanoTime() : 0;
+      CounterMetric counter = metrics.counter;
+      final InvocationRetries retries =
+          metrics.retryMetrics != null ? InvocationRetries.begin() : null;
       try {
 
-        final Meter meter = this.meters.get(method);
-        if (meter != null) {
-          meter.mark();
+        if (metrics.meter != null) {
+          if (buffer != null) {
+            buffer.mark();
+          } else {
+            metrics.meter.mark();
+          }
         }
 
-        final Timer timer = this.timers.get(method);
-        if (timer != null) {
-          this.context = timer.time();
+        if (counter != null) {
+          counter.begin();
         }
 
-        ACTUAL_METHOD.set(method);
-        ACTUAL_METRIC.set(this.responseMeters.get(method));
+        if (metrics.timer != null
+            && (metrics.sampledTimer == null || metrics.sampledTimer.sample())) {
+          timing = true;
+          if (!limited) {
+            start = System.nanoTime();
+          }
+        }
 
-        return methodHandler.invoke(argv);
+        if (useThreadLocal) {
+          ACTUAL_METHOD.set(metrics.method);
+          ACTUAL_METRIC.set(metrics);
+        }
 
-      } catch (final Exception e) {
+        final Object result = methodHandler.invoke(argv);
+
+        if (metrics.async && result instanceof CompletableFuture) {
+          // the call is only finished once the future completes, so the timer is handed over
+          final boolean asyncTiming = timing;
+          final long asyncStart = start;
+          final CounterMetric asyncCounter = counter;
+          final MethodMetrics asyncMetrics = metrics;
+          final boolean asyncLimited = limited;
+          timing = false;
+          counter = null;
+          limited = false;
+          ((CompletableFuture<?>) result).whenComplete((value, throwable) -> {
+            final long elapsed = asyncTiming || asyncLimited ? System.nanoTime() - asyncStart : 0;
+            if (asyncTiming) {
+              time(asyncMetrics, elapsed);
+            }
+            if (asyncCounter != null) {
+              asyncCounter.end();
+            }
+            if (throwable != null) {
+              markException(asyncMetrics, throwable);
+            }
+            if (asyncLimited) {
+              concurrencyLimit.limiter.release(elapsed,
+                  isDropped(throwable instanceof CompletionException && throwable.getCause() != null
+                      ? throwable.getCause()
+                      : throwable));
+            }
+          });
+        }
 
-        final FeignMetricsInvocationHandlerFactoryDecorator.ExceptionMeterMetric metric =
-            (method != null) ? this.exceptionMeters.get(method) : null;
+        return result;
 
-        if (metric != null
-            && (metric.cause.isAssignableFrom(e.getClass()) || (e.getCause() != null && metric.cause
-                .isAssignableFrom(e.getCause().getClass())))) {
-          metric.meter.mark();
-        }
+      } catch (final Exception e) {
+
+        failure = e;
+        markException(metrics, e);
 
         throw e;
       } finally {
-        if (this.context != null) {
-          this.context.close();
+        final long elapsed = timing || limited ? System.nanoTime() - start : 0;
+        if (timing) {
+          time(metrics, elapsed);
+        }
+        if (counter != null) {
+          counter.end();
+        }
+        if (retries != null) {
+          retries.end(metrics.retryMetrics);
+        }
+        if (limited) {
+          concurrencyLimit.limiter.release(elapsed, isDropped(failure));
+        }
+        if (useThreadLocal) {
+          ACTUAL_METHOD.set(null);
+          ACTUAL_METRIC.set(null);
         }
-        ACTUAL_METHOD.set(null);
-        ACTUAL_METRIC.set(null);
       }
     }
-  }
 
-  @Override
-  public InvocationHandler create(final Target target, final Map<Method, MethodHandler> dispatch) {
+    private static void time(final MethodMetrics metrics, final long nanos) {
+      if (metrics.buffer != null) {
+        metrics.buffer.update(nanos);
+      } else {
+        metrics.timer.update(nanos, TimeUnit.NANOSECONDS);
+      }
+    }
 
-    for (final Map.Entry<Method, MethodHandler> entry : dispatch.entrySet()) {
+    /**
+     * @return whether the request failed, like on a timeout, which shrinks the concurrency limit
+     */
+    private static boolean isDropped(final Throwable e) {
+      return e instanceof RetryableException;
+    }
 
-      registerMetricsForMethod(entry.getKey());
+    private static void markException(final MethodMetrics metrics, final Throwable e) {
+      final ExceptionMeterMetric metric = metrics.exceptionMeter;
 
-      entry.setValue(new MethodHandlerDecorator(entry.getKey(), entry.getValue(), meters,
-          exceptionMeters, timers, responseMeters));
+      if (metric != null) {
+        metric.mark(e);
+      }
     }
-
-    return delegate.create(target, dispatch);
   }
 
-  private void registerMetricsForMethod(final Method method) {
+  @Override
+  public InvocationHandler create(final Target target, final Map<Method, MethodHandler> dispatch) {
 
-    final Timed classLevelTimed = getClassLevelAnnotation(method.getDeclaringClass(), Timed.class);
-    final Metered classLevelMetered =
-        getClassLevelAnnotation(method.getDeclaringClass(), Metered.class);
-    final ResponseMetered classLevelResponseMetered =
-        getClassLevelAnnotation(method.getDeclaringClass(), ResponseMetered.class);
-    final ExceptionMetered classLevelExceptionMetered =
-        getClassLevelAnnotation(method.getDeclaringClass(), ExceptionMetered.class);
+    if (config.retryBudgets != null) {
+      config.retryBudgets.register(target, metricRegistry);
+    }
+    final String dimension =
+        config.targetDimensions != null ? config.targetDimensions.of(target) : "";
+    final ConcurrentMap<Method, MethodMetrics> metricsOfDimension =
+        methodMetrics.computeIfAbsent(dimension, d -> new ConcurrentHashMap<>());
+    // with a managed lifecycle each client owns its metrics, so they can be released separately
+    final MetricsLifecycle.Registration registration = config.lifecycle != null
+        ? config.lifecycle.new Registration(target, metricRegistry, config.index,
+            config.retryBudgets, method -> registerMetricsForMethod(method, dimension))
+        : null;
+
+    if (config.lazyRegistration) {
+      final Function<Method, MethodMetrics> initializer = registration != null ? null
+          : method -> initializeMetrics(target, method, dimension, metricsOfDimension);
+      for (final Map.Entry<Method, MethodHandler> entry : dispatch.entrySet()) {
+        entry.setValue(new MethodHandlerDecorator(entry.getValue(), entry.getKey(), null,
+            config.index == null, registration, initializer));
+      }
+      return track(delegate.create(target, dispatch), registration);
+    }
 
-    registerTimedAnnotations(method, classLevelTimed);
-    registerMeteredAnnotations(method, classLevelMetered);
-    registerResponseMeteredAnnotations(method, classLevelResponseMetered);
-    registerExceptionMeteredAnnotations(method, classLevelExceptionMetered);
+    for (final Map.Entry<Method, MethodHandler> entry : dispatch.entrySet()) {
 
-  }
+      final MethodMetrics metrics = registration != null
+          ? registration.acquire(entry.getKey())
+          : metricsOfDimension.computeIfAbsent(entry.getKey(),
+              method -> registerMetricsForMethod(method, dimension));
 
-  private <T extends Annotation> T getClassLevelAnnotation(final Class clazz,
-      final Class<T> annotationClazz) {
-    return (T) clazz.getAnnotation(annotationClazz);
-  }
+      if (config.index != null) {
+        config.index.register(target, entry.getKey(), metrics);
+      }
 
-  private void registerTimedAnnotations(final Method method, final Timed classLevelTimed) {
-    if (classLevelTimed != null) {
-      timers.putIfAbsent(method, timerMetric(this.metricRegistry, method, classLevelTimed));
-      return;
+      entry.setValue(new MethodHandlerDecorator(entry.getValue(), metrics, config.index == null,
+          registration));
     }
 
-    final Timed annotation = method.getAnnotation(Timed.class);
+    return track(delegate.create(target, dispatch), registration);
+  }
 
-    if (annotation != null) {
-      timers.putIfAbsent(method, timerMetric(this.metricRegistry, method, annotation));
+  private InvocationHandler track(final InvocationHandler handler,
+      final MetricsLifecycle.Registration registration) {
+    if (registration != null) {
+      config.lifecycle.track(handler, registration);
     }
+    return handler;
   }
 
-  private void registerMeteredAnnotations(final Method method, final Metered classLevelMetered) {
-    if (classLevelMetered != null) {
-      meters.putIfAbsent(method, meterMetric(metricRegistry, method, classLevelMetered));
-      return;
+  /**
+   * Registers the metrics of a method on its first invocation, unless a target of the same dimension
+   * already did, without holding a lock while registering.
+   */
+  private MethodMetrics initializeMetrics(final Target<?> target, final Method method,
+      final String dimension, final ConcurrentMap<Method, MethodMetrics> metricsOfDimension) {
+    MethodMetrics metrics = metricsOfDimension.get(method);
+    if (metrics == null) {
+      final MethodMetrics registered = registerMetricsForMethod(method, dimension);
+      metrics = metricsOfDimension.putIfAbsent(method, registered);
+      if (metrics == null) {
+        metrics = registered;
+      }
+    }
+    if (config.index != null) {
+      config.index.register(target, method, metrics);
     }
-    final Metered annotation = method.getAnnotation(Metered.class);
+    return metrics;
+  }
 
-    if (annotation != null) {
-      meters.putIfAbsent(method, meterMetric(metricRegistry, method, annotation));
+  private MethodMetrics registerMetricsForMethod(final Method method, final String dimension) {
+
+    final Map<String, Metric> registered = new LinkedHashMap<>();
+    final MethodAnnotations annotations = MethodAnnotations.of(method);
+
+    final Timed timed = annotations.timed;
+    final Timer timer = timed != null ? timerMetric(method, dimension, timed, registered) : null;
+    final Timer queueWaitTimer =
+        timer != null && CompletableFuture.class.isAssignableFrom(method.getReturnType())
+            ? subTimerMetric(method, dimension, timed, "queueWait", registered)
+            : null;
+    final PhaseTimers phaseTimers = timer != null && config.phaseTimers
+        ? new PhaseTimers(subTimerMetric(method, dimension, timed, "encode", registered),
+            subTimerMetric(method, dimension, timed, "transport", registered),
+            subTimerMetric(method, dimension, timed, "bodyRead", registered),
+            subTimerMetric(method, dimension, timed, "decode", registered),
+            subTimerMetric(method, dimension, timed, "retrySleep", registered),
+            unconsumedBodiesMetric(method, dimension, timed, registered))
+        : null;
+
+    final RetryMetrics retryMetrics = config.retryMetrics
+        && !CompletableFuture.class.isAssignableFrom(method.getReturnType())
+            ? new RetryMetrics(histogram(method, dimension, "attempts", registered),
+                timer(method, chooseDimensionedName(dimension, null, false, method, "attempt",
+                    "Timed"), registered),
+                timer(method, chooseDimensionedName(dimension, null, false, method, "retryBackoff",
+                    "Timed"), registered))
+            : null;
+
+    final Meter meter = annotations.metered != null
+        ? meterMetric(metricRegistry, method, dimension, annotations.metered, registered)
+        : null;
+    final BufferedRecording.MethodBuffer buffer =
+        config.buffering != null && (meter != null || timer != null)
+            ? config.buffering.buffer(meter, timer)
+            : null;
+
+    final MethodMetrics.Builder builder = new MethodMetrics.Builder(method).timer(timer)
+        .queueWaitTimer(queueWaitTimer).phaseTimers(phaseTimers).retryMetrics(retryMetrics)
+        .meter(meter).buffer(buffer).registered(registered);
+    if (annotations.counted != null) {
+      builder.counter(
+          new CounterMetric(metricRegistry, method, dimension, annotations.counted, registered));
+    }
+    if (annotations.responseMetered != null) {
+      builder.responseMeters(new ResponseMeterMetric(metricRegistry, method, dimension,
+          annotations.responseMetered, config.detailedResponseMeters, registered));
+    }
+    if (annotations.exceptionMetered != null) {
+      builder.exceptionMeter(new ExceptionMeterMetric(metricRegistry, method, dimension,
+          annotations.exceptionMetered, config.maxRootCauses, registered));
+    }
+    if (config.payloadSizes) {
+      builder.payloadSizes(histogram(method, dimension, "requestSize", registered),
+          histogram(method, dimension, "responseSize", registered));
+    }
+    if (config.maxConcurrencyLimit > 0) {
+      builder.concurrencyLimit(new ConcurrencyLimitMetric(metricRegistry, method, dimension,
+          config.initialConcurrencyLimit, config.maxConcurrencyLimit, registered));
+    }
+    if (timer != null && config.hedgeExecutor != null) {
+      builder.hedge(new HedgeMetric(metricRegistry, method, dimension, annotations.idempotent,
+          phaseTimers != null ? phaseTimers.transport : timer, config.hedgeQuantile,
+          config.maxHedgeRatio, registered));
     }
+    if (config.coalescingHeaders != null) {
+      builder.coalescing(new CoalescingMeters(metricRegistry, method, dimension, registered));
+    }
+    if (config.responseCaching && annotations.responseCached != null) {
+      builder.cache(responseCache(method, dimension, annotations.responseCached, registered));
+    }
+    return builder.build();
   }
 
-  private void registerResponseMeteredAnnotations(final Method method,
-      final ResponseMetered classLevelResponseMetered) {
+  /**
+   * Registers the cache of a method as gauge {@code cacheBytes} of the size of its bodies, so clients
+   * of the same method and dimension share it, with meters {@code cacheHits.Metered},
+   * {@code cacheMisses.Metered}, {@code cacheRevalidations.Metered} and
+   * {@code cacheEvictions.Metered}.
+   */
+  private ResponseCache responseCache(final Method method, final String dimension,
+      final ResponseCached cached, final Map<String, Metric> registered) {
+    final Meter hits = partMeter(metricRegistry, method, dimension, "cacheHits", registered);
+    final Meter misses = partMeter(metricRegistry, method, dimension, "cacheMisses", registered);
+    final Meter revalidations =
+        partMeter(metricRegistry, method, dimension, "cacheRevalidations", registered);
+    final Meter evictions =
+        partMeter(metricRegistry, method, dimension, "cacheEvictions", registered);
+    final String name = chooseDimensionedName(dimension, null, false, method, "cacheBytes");
+    final Gauge<?> gauge = metricRegistry.gauge(name,
+        () -> new ResponseCache(cached, hits, misses, revalidations, evictions));
+    registered.put(name, gauge);
+    // another gauge registered under the same name is left alone
+    return gauge instanceof ResponseCache ? (ResponseCache) gauge
+        : new ResponseCache(cached, hits, misses, revalidations, evictions);
+  }
 
-    if (classLevelResponseMetered != null) {
-      responseMeters.putIfAbsent(method, new FeignMetricsInvocationHandlerFactoryDecorator.ResponseMeterMetric(
-          metricRegistry, method, classLevelResponseMetered));
-      return;
+  private Timer timerMetric(final Method method, final String dimension, final Timed timed,
+      final Map<String, Metric> registered) {
+    final String name =
+        chooseDimensionedName(dimension, timed.name(), timed.absolute(), method, "Timed");
+    if (config.timerSampleRate > 1 || config.maxTimerSamplesPerSecond > 0) {
+      final MetricSupplier<Timer> supplier = timerSupplier(method);
+      // registries which ignore the supplier, like those of other backends, time every invocation
+      final Timer timer = metricRegistry.timer(name,
+          () -> new SampledTimer(supplier != null ? supplier.newMetric() : new Timer(),
+              config.timerSampleRate, config.maxTimerSamplesPerSecond));
+      registered.put(name, timer);
+      return timer;
     }
-    final ResponseMetered annotation = method.getAnnotation(ResponseMetered.class);
+    return timer(method, name, registered);
+  }
 
-    if (annotation != null) {
-      responseMeters.putIfAbsent(method, new FeignMetricsInvocationHandlerFactoryDecorator.ResponseMeterMetric(
-          metricRegistry, method, annotation));
+  /**
+   * Registers a timer of a part of the invocation of a {@link Timed} method, named like
+   * {@code method.part.Timed}, or {@code name.part} if the annotation has an explicit name.
+   */
+  private Timer subTimerMetric(final Method method, final String dimension, final Timed timed,
+      final String part, final Map<String, Metric> registered) {
+    if (timed.name() != null && !timed.name().isEmpty()) {
+      return timer(method, name(
+          chooseDimensionedName(dimension, timed.name(), timed.absolute(), method), part),
+          registered);
     }
+    return timer(method, chooseDimensionedName(dimension, timed.name(), timed.absolute(), method,
+        part, "Timed"), registered);
+  }
 
+  private Meter unconsumedBodiesMetric(final Method method, final String dimension,
+      final Timed timed, final Map<String, Metric> registered) {
+    final String name = timed.name() != null && !timed.name().isEmpty()
+        ? name(chooseDimensionedName(dimension, timed.name(), timed.absolute(), method),
+            "unconsumedBodies")
+        : chooseDimensionedName(dimension, timed.name(), timed.absolute(), method,
+            "unconsumedBodies", "Metered");
+    final Meter meter = metricRegistry.meter(name);
+    registered.put(name, meter);
+    return meter;
   }
 
-  private void registerExceptionMeteredAnnotations(final Method method,
-      final ExceptionMetered classLevelExceptionMetered) {
+  /**
+   * Registers a timer using the supplier of a {@link TimerReservoir} annotation, or the configured
+   * supplier if there is none.
+   */
+  private Timer timer(final Method method, final String name,
+      final Map<String, Metric> registered) {
+    final MetricSupplier<Timer> supplier = timerSupplier(method);
+    final Timer timer =
+        supplier != null ? metricRegistry.timer(name, supplier) : metricRegistry.timer(name);
+    registered.put(name, timer);
+    return timer;
+  }
 
-    if (classLevelExceptionMetered != null) {
-      exceptionMeters.putIfAbsent(method, new FeignMetricsInvocationHandlerFactoryDecorator.ExceptionMeterMetric(
-          metricRegistry, method, classLevelExceptionMetered));
-      return;
-    }
-    final ExceptionMetered annotation = method.getAnnotation(ExceptionMetered.class);
+  /**
+   * @return the supplier of a {@link TimerReservoir} annotation, or the configured supplier if there
+   *         is none, or {@code null} to use the default timers of the registry
+   */
+  private MetricSupplier<Timer> timerSupplier(final Method method) {
+    final TimerReservoir reservoir = MethodAnnotations.of(method).timerReservoir;
+    return reservoir != null ? TimerSuppliers.of(reservoir) : config.timerSupplier;
+  }
 
-    if (annotation != null) {
-      exceptionMeters.putIfAbsent(method, new FeignMetricsInvocationHandlerFactoryDecorator.ExceptionMeterMetric(
-          metricRegistry, method, annotation));
-    }
+  private Histogram histogram(final Method method, final String dimension, final String suffix,
+      final Map<String, Metric> registered) {
+    final String name = chooseDimensionedName(dimension, null, false, method, suffix);
+    final Histogram histogram = metricRegistry.histogram(name);
+    registered.put(name, histogram);
+    return histogram;
   }
 
-  private static Timer timerMetric(final MetricRegistry registry, final Method method,
-      final Timed timed) {
-    final String name = chooseName(timed.name(), timed.absolute(), method, "Timed");
-    return registry.timer(name);
+  static Meter partMeter(final MetricRegistry registry, final Method method,
+      final String dimension, final String part, final Map<String, Metric> registered) {
+    final String name = chooseDimensionedName(dimension, null, false, method, part, "Metered");
+    final Meter meter = registry.meter(name);
+    registered.put(name, meter);
+    return meter;
   }
 
   private static Meter meterMetric(final MetricRegistry registry, final Method method,
-      final Metered metered) {
-    final String name = chooseName(metered.name(), metered.absolute(), method, "Metered");
-    return registry.meter(name);
+      final String dimension, final Metered metered, final Map<String, Metric> registered) {
+    final String name =
+        chooseDimensionedName(dimension, metered.name(), metered.absolute(), method, "Metered");
+    final Meter meter = registry.meter(name);
+    registered.put(name, meter);
+    return meter;
   }
 
   static String chooseName(final String explicitName, final boolean absolute, final Method method,
       final String... suffixes) {
+    return chooseDimensionedName(null, explicitName, absolute, method, suffixes);
+  }
+
+  /**
+   * Like {@link #chooseName(String, boolean, Method, String...)}, but appending the dimension of
+   * the target, if not empty, to the name of the method or the explicit name.
+   */
+  static String chooseDimensionedName(final String dimension, final String explicitName,
+      final boolean absolute, final Method method, final String... suffixes) {
     if (explicitName != null && !explicitName.isEmpty()) {
       if (absolute) {
-        return explicitName;
+        return name(explicitName, dimension);
       }
-      return name(method.getDeclaringClass(), explicitName);
+      return name(name(method.getDeclaringClass(), explicitName), dimension);
     }
 
-    return name(name(method.getDeclaringClass(), method.getName()), suffixes);
+    return name(name(name(method.getDeclaringClass(), method.getName()), dimension), suffixes);
   }
 }
@@ -0,0 +1,141 @@
+package com.github.mwiede.metrics.feign;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Histogram;
+
+import feign.Response;
+
+/**
+ * A decorator of a {@link Response.Body}, which meters the body while the decoder streams it, so the
+ * body is never buffered. Once the body is read to its end or closed, it records the number of bytes
+ * read and the time since the response headers were received. Bodies which are closed before they
+ * were read to their end are metered as unconsumed.
+ */
+class FeignMetricsResponseBodyDecorator implements Response.Body {
+
+  private final Response.Body delegate;
+  private final Histogram responseSize;
+  private final PhaseTimers phaseTimers;
+  private final long headersReceived;
+
+  private long bytesRead;
+  private boolean finished;
+
+  /**
+   * @param responseSize the histogram of the size of bodies, or {@code null} if the size is known
+   *        or not recorded
+   * @param phaseTimers the phase timers of the method, or {@code null} if they are not enabled
+   */
+  FeignMetricsResponseBodyDecorator(final Response.Body delegate, final Histogram responseSize,
+      final PhaseTimers phaseTimers) {
+    this.delegate = delegate;
+    this.responseSize = responseSize;
+    this.phaseTimers = phaseTimers;
+    this.headersReceived = System.nanoTime();
+  }
+
+  @Override
+  public Integer length() {
+    return delegate.length();
+  }
+
+  @Override
+  public boolean isRepeatable() {
+    return delegate.isRepeatable();
+  }
+
+  @Override
+  public InputStream asInputStream() throws IOException {
+    return new CountingInputStream(delegate.asInputStream());
+  }
+
+  @Override
+  public Reader asReader(final Charset charset) throws IOException {
+    return new InputStreamReader(asInputStream(), charset);
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      delegate.close();
+    } finally {
+      finish(false);
+    }
+  }
+
+  private void finish(final boolean endOfStream) {
+    if (finished) {
+      return;
+    }
+    finished = true;
+    if (responseSize != null) {
+      responseSize.update(bytesRead);
+    }
+    if (phaseTimers != null) {
+      phaseTimers.bodyRead.update(System.nanoTime() - headersReceived, TimeUnit.NANOSECONDS);
+      final Integer length = delegate.length();
+      // decoders may stop at the end of the content without reading the end of the stream
+      if (!endOfStream && (length == null || bytesRead < length)) {
+        phaseTimers.unconsumedBodies.mark();
+      }
+    }
+  }
+
+  private class CountingInputStream extends FilterInputStream {
+
+    CountingInputStream(final InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      final int b = super.read();
+      if (b < 0) {
+        finish(true);
+      } else {
+        bytesRead++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      final int n = super.read(b, off, len);
+      if (n < 0) {
+        finish(true);
+      } else {
+        bytesRead += n;
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+      final long skipped = super.skip(n);
+      bytesRead += skipped;
+      return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+      // a reset would count bytes twice
+      return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        finish(false);
+      }
+    }
+  }
+}
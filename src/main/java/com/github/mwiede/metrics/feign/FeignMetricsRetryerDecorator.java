@@ -1,52 +1,260 @@
 package com.github.mwiede.metrics.feign;
 
 import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
 
+import feign.Request;
+import feign.RequestTemplate;
 import feign.RetryableException;
 import feign.Retryer;
 
 /**
  * A {@link Retryer} which exposes a metric which shows the number of attempts being made during
  * invocation on the target. It can only be used together with {@link FeignMetricsInvocationHandlerFactoryDecorator}
- * because it takes the actual invoked method from its threadlocal.
- *
+ * because it takes the actual invoked method from its threadlocal, unless it is configured to take
+ * the method from the {@link feign.MethodMetadata} of the failed request.
+ * <p>
+ * Configured by the {@link AnnotionMetricsCapability}, it also denies retries beyond the retry
+ * budget of the target, and backs off by the latency of the method instead of the delegate.
  */
 public class FeignMetricsRetryerDecorator implements Retryer {
 
+  /**
+   * The backoff of methods whose latency is not known, like that of {@link Retryer.Default}.
+   */
+  private static final long DEFAULT_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final long MIN_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
   private final MetricRegistry metricRegistry;
   private final Retryer delegate;
+  private final ConcurrentMap<Method, RetryMeters> retryMeters;
+  private final MetricsConfig config;
+  /**
+   * The number of the current attempt, if the backoff is adaptive.
+   */
+  private int attempt = 1;
 
   public FeignMetricsRetryerDecorator(final Retryer retryer, final MetricRegistry metricRegistry) {
+    this(retryer, metricRegistry, MetricsConfig.DEFAULT);
+  }
+
+  /**
+   * @param config if it contains an index, the invoked method is taken from the request of the
+   *        {@link RetryableException} instead of the threadlocal.
+   */
+  FeignMetricsRetryerDecorator(final Retryer retryer, final MetricRegistry metricRegistry,
+      final MetricsConfig config) {
+    this(retryer, metricRegistry, new ConcurrentHashMap<>(), config);
+  }
+
+  private FeignMetricsRetryerDecorator(final Retryer retryer, final MetricRegistry metricRegistry,
+      final ConcurrentMap<Method, RetryMeters> retryMeters, final MetricsConfig config) {
     this.delegate = retryer;
     this.metricRegistry = metricRegistry;
+    this.retryMeters = retryMeters;
+    this.config = config;
+  }
+
+  /**
+   * The retry meters of a single method. Since the retryer is cloned for every invocation, the
+   * instances are kept in a map shared by all clones, so the metric names are only built once per
+   * method. The "retryExhausted" and "retryBudgetExhausted" meters are registered on their first
+   * use, the "effectiveBackoff" gauge with the meters if the backoff is adaptive.
+   */
+  private static class RetryMeters {
+    private final MetricRegistry registry;
+    private final Method method;
+    private final Meter reAttempts;
+    private volatile Meter retryExhausted;
+    private volatile Meter retryBudgetExhausted;
+    /**
+     * The latest backoff before a retry of the method.
+     */
+    private final AtomicLong effectiveBackoffNanos = new AtomicLong();
+
+    RetryMeters(final MetricRegistry registry, final Method method, final boolean adaptive) {
+      this.registry = registry;
+      this.method = method;
+      this.reAttempts = meter("reAttempts");
+      if (adaptive) {
+        registry.gauge(
+            FeignMetricsInvocationHandlerFactoryDecorator.chooseName("", false, method,
+                "effectiveBackoff"),
+            () -> (Gauge<Long>) () -> TimeUnit.NANOSECONDS.toMillis(effectiveBackoffNanos.get()));
+      }
+    }
+
+    Meter retryExhausted() {
+      Meter meter = retryExhausted;
+      if (meter == null) {
+        meter = meter("retryExhausted");
+        retryExhausted = meter;
+      }
+      return meter;
+    }
+
+    Meter retryBudgetExhausted() {
+      Meter meter = retryBudgetExhausted;
+      if (meter == null) {
+        meter = meter("retryBudgetExhausted");
+        retryBudgetExhausted = meter;
+      }
+      return meter;
+    }
+
+    private Meter meter(final String metricName) {
+      final String name =
+          FeignMetricsInvocationHandlerFactoryDecorator.chooseName("", false, method, metricName, "Metered");
+      return registry.meter(name);
+    }
   }
 
   @Override
   public void continueOrPropagate(final RetryableException e) {
-    final Meter meter = getMetric("reAttempts");
+    final Method method = invokedMethod(e);
+    final RetryMeters meters = method != null ? getMetrics(method) : null;
+
+    if (config.maxRetryAttempts > 0 && attempt >= config.maxRetryAttempts) {
+      if (meters != null) {
+        meters.retryExhausted().mark();
+      }
+      throw e;
+    }
+    final RetryBudget budget =
+        config.retryBudgets != null ? config.retryBudgets.of(e.request()) : null;
+    if (budget != null && !budget.withdraw()) {
+      if (meters != null) {
+        meters.retryBudgetExhausted().mark();
+        meters.retryExhausted().mark();
+      }
+      throw e;
+    }
+
+    final MethodMetrics metrics =
+        method != null && (config.phaseTimers || config.retryMetrics || config.maxRetryAttempts > 0)
+            ? invokedMethodMetrics(e)
+            : null;
 
     try {
-      delegate.continueOrPropagate(e);
-      meter.mark();
+      if (metrics != null && (metrics.phaseTimers != null || metrics.retryMetrics != null)) {
+        final long start = System.nanoTime();
+        backOff(e, metrics, meters);
+        final long slept = System.nanoTime() - start;
+        if (metrics.phaseTimers != null) {
+          metrics.phaseTimers.retrySleep.update(slept, TimeUnit.NANOSECONDS);
+        }
+        final InvocationRetries retries =
+            metrics.retryMetrics != null ? InvocationRetries.current() : null;
+        if (retries != null) {
+          retries.backedOff(slept);
+        }
+      } else {
+        backOff(e, metrics, meters);
+      }
+      if (meters != null) {
+        meters.reAttempts.mark();
+      }
     } catch (final Exception ex) {
-      getMetric("retryExhausted").mark();
+      if (budget != null) {
+        budget.refund();
+      }
+      if (meters != null) {
+        meters.retryExhausted().mark();
+      }
       throw ex;
     }
   }
 
+  /**
+   * Sleeps before the next attempt. Unless the backoff is adaptive, this is left to the delegate,
+   * which may propagate the exception instead.
+   */
+  private void backOff(final RetryableException e, final MethodMetrics metrics,
+      final RetryMeters meters) {
+    if (config.maxRetryAttempts == 0) {
+      delegate.continueOrPropagate(e);
+      return;
+    }
+    final long backoffNanos = backoffNanos(e, metrics);
+    attempt++;
+    if (meters != null) {
+      meters.effectiveBackoffNanos.set(backoffNanos);
+    }
+    try {
+      TimeUnit.NANOSECONDS.sleep(backoffNanos);
+    } catch (final InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw e;
+    }
+  }
+
+  /**
+   * @return the backoff before the next attempt: the median latency of the method, growing by a
+   *         factor of 1.5 per attempt, with jitter of up to half of it, but at least until the time
+   *         the server asked to retry after and at most the maximum backoff.
+   */
+  long backoffNanos(final RetryableException e, final MethodMetrics metrics) {
+    final Timer latency = metrics == null ? null
+        : metrics.phaseTimers != null ? metrics.phaseTimers.transport : metrics.timer;
+    // the count may be positive while the reservoir holds no values, like a fresh interval
+    final Snapshot snapshot = latency != null ? latency.getSnapshot() : null;
+    final long base = snapshot != null && snapshot.size() > 0
+        ? Math.max(MIN_BACKOFF_NANOS, (long) snapshot.getMedian())
+        : DEFAULT_BACKOFF_NANOS;
+    double backoff = base * Math.pow(1.5, attempt - 1);
+    backoff *= 1 - ThreadLocalRandom.current().nextDouble() / 2;
+    if (e.retryAfter() != null) {
+      backoff = Math.max(backoff, TimeUnit.MILLISECONDS
+          .toNanos(e.retryAfter().getTime() - System.currentTimeMillis()));
+    }
+    return (long) Math.max(0, Math.min(config.maxRetryBackoffNanos, backoff));
+  }
+
   @Override
   public Retryer clone() {
-    return new FeignMetricsRetryerDecorator(delegate.clone(), metricRegistry);
+    return new FeignMetricsRetryerDecorator(delegate.clone(), metricRegistry, retryMeters,
+        config);
   }
 
-  private Meter getMetric(final String metricName) {
-    final Method method = FeignMetricsInvocationHandlerFactoryDecorator.ACTUAL_METHOD.get();
-    final String name =
-        FeignMetricsInvocationHandlerFactoryDecorator.chooseName("", false, method, metricName, "Metered");
-    return metricRegistry.meter(name);
+  private MethodMetrics invokedMethodMetrics(final RetryableException e) {
+    if (config.index == null) {
+      return FeignMetricsInvocationHandlerFactoryDecorator.ACTUAL_METRIC.get();
+    }
+    return e.request() == null ? null : config.index.get(e.request());
+  }
+
+  private Method invokedMethod(final RetryableException e) {
+    if (config.index == null) {
+      return FeignMetricsInvocationHandlerFactoryDecorator.ACTUAL_METHOD.get();
+    }
+    final Request request = e.request();
+    if (request == null) {
+      return null;
+    }
+    final RequestTemplate template = request.requestTemplate();
+    if (template == null || template.methodMetadata() == null) {
+      return null;
+    }
+    return template.methodMetadata().method();
+  }
+
+  private RetryMeters getMetrics(final Method method) {
+    final RetryMeters meters = retryMeters.get(method);
+    if (meters != null) {
+      return meters;
+    }
+    return retryMeters.computeIfAbsent(method,
+        m -> new RetryMeters(metricRegistry, m, config.maxRetryAttempts > 0));
   }
 
 
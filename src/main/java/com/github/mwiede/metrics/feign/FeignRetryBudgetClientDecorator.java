@@ -0,0 +1,38 @@
+package com.github.mwiede.metrics.feign;
+
+import java.io.IOException;
+
+import feign.Client;
+import feign.Request;
+import feign.Request.Options;
+import feign.Response;
+
+/**
+ * A decorator of a {@link Client}, which adds to the {@link RetryBudget} of the target for each
+ * response with a status below 500. It is placed next to the transport, so only responses received
+ * from the server count, not those taken from the cache or shared by coalesced requests.
+ */
+class FeignRetryBudgetClientDecorator implements Client {
+
+  private static final int SERVER_ERROR = 500;
+
+  private final Client delegate;
+  private final RetryBudgets budgets;
+
+  FeignRetryBudgetClientDecorator(final Client delegate, final RetryBudgets budgets) {
+    this.delegate = delegate;
+    this.budgets = budgets;
+  }
+
+  @Override
+  public Response execute(final Request request, final Options options) throws IOException {
+    final Response response = delegate.execute(request, options);
+    if (response.status() < SERVER_ERROR) {
+      final RetryBudget budget = budgets.of(request);
+      if (budget != null) {
+        budget.deposit();
+      }
+    }
+    return response;
+  }
+}
@@ -1,6 +1,8 @@
 package com.github.mwiede.metrics.feign;
 
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistry.MetricSupplier;
+import com.codahale.metrics.Timer;
 import feign.Client;
 import feign.Feign;
 import feign.InvocationHandlerFactory;
@@ -24,19 +26,42 @@ public abstract class FeignWithMetrics {
    * @return the builder
    */
   public static feign.Feign.Builder builder(final MetricRegistry metricRegistry) {
-    return new FeignWithMetrics.Builder(metricRegistry)
+    return builder(new FeignWithMetrics.Builder(metricRegistry));
+  }
+
+  /**
+   * Like {@link #builder(MetricRegistry)}, but creating the timers of
+   * {@link com.codahale.metrics.annotation.Timed} methods with the given supplier.
+   *
+   * @param metricRegistry
+   * @param timerSupplier the supplier of timers, for example {@link TimerSuppliers#hdrHistogram()}
+   * @return the builder
+   */
+  public static feign.Feign.Builder builder(final MetricRegistry metricRegistry,
+      final MetricSupplier<Timer> timerSupplier) {
+    return builder(new FeignWithMetrics.Builder(metricRegistry,
+        new MetricsConfig.Builder().timerSupplier(timerSupplier).build()));
+  }
+
+  private static feign.Feign.Builder builder(final FeignWithMetrics.Builder builder) {
+    return builder
         .invocationHandlerFactory(new InvocationHandlerFactory.Default())
         .retryer(new Retryer.Default()).client(new Client.Default(null, null));
-
   }
 
   public static class Builder extends Feign.Builder {
 
     private final MetricRegistry metricRegistry;
+    private final MetricsConfig config;
 
     public Builder(final MetricRegistry metricRegistry) {
+      this(metricRegistry, MetricsConfig.DEFAULT);
+    }
+
+    Builder(final MetricRegistry metricRegistry, final MetricsConfig config) {
       super();
       this.metricRegistry = metricRegistry;
+      this.config = config;
     }
 
     @Override
@@ -48,7 +73,7 @@ public abstract class FeignWithMetrics {
     public feign.Feign.Builder invocationHandlerFactory(
         final InvocationHandlerFactory invocationHandlerFactory) {
       return super.invocationHandlerFactory(new FeignMetricsInvocationHandlerFactoryDecorator(
-          invocationHandlerFactory, metricRegistry));
+          invocationHandlerFactory, metricRegistry, config));
     }
 
     @Override
@@ -0,0 +1,252 @@
+package com.github.mwiede.metrics.feign;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
+import org.HdrHistogram.Recorder;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+
+/**
+ * A {@link Reservoir} backed by a HdrHistogram {@link Recorder}. Values are recorded wait-free, and
+ * percentiles keep the configured number of significant digits over the full range of values.
+ * <p>
+ * By default, each snapshot contains the values of the last minute, or of the given window: the
+ * window is split into {@link #CHUNKS} chunks, each holding the values of its part of the window,
+ * and a snapshot merges them. The values of a chunk are dropped as a whole once it fell out of the
+ * window, so a snapshot covers between the window less one chunk and the whole window. Snapshots
+ * can be taken by any number of readers.
+ * <p>
+ * With {@link #intervals(int)}, each snapshot contains only the values recorded since the previous
+ * one, which suits a reservoir read by a single reporter and nothing else. With
+ * {@link #cumulative(int)}, each snapshot contains all values recorded since the reservoir was
+ * created, so percentiles hardly move anymore once many values were recorded.
+ */
+public class HdrHistogramReservoir implements Reservoir {
+
+  /**
+   * The number of chunks a window is split into.
+   */
+  static final int CHUNKS = 6;
+
+  private final Recorder recorder;
+  private final Clock clock;
+  /**
+   * The values of the chunks of the window, or of all previous snapshots for cumulative
+   * reservoirs, or {@code null} for intervals.
+   */
+  private final Histogram[] chunks;
+  /**
+   * The duration of a chunk, or {@code 0} if the reservoir is not windowed.
+   */
+  private final long chunkNanos;
+  /**
+   * The values of all chunks, reused by each snapshot before it is copied.
+   */
+  private final Histogram merged;
+  private int position;
+  private volatile long nextRotation;
+  private Histogram intervalHistogram;
+  private volatile int lastSize;
+
+  public HdrHistogramReservoir() {
+    this(3);
+  }
+
+  /**
+   * @param numberOfSignificantValueDigits the precision of the recorded values, between 0 and 5
+   */
+  public HdrHistogramReservoir(final int numberOfSignificantValueDigits) {
+    this(numberOfSignificantValueDigits, 1, TimeUnit.MINUTES);
+  }
+
+  /**
+   * @param numberOfSignificantValueDigits the precision of the recorded values, between 0 and 5
+   * @param window the duration of the values of a snapshot
+   * @param windowUnit the unit of {@code window}
+   */
+  public HdrHistogramReservoir(final int numberOfSignificantValueDigits, final long window,
+      final TimeUnit windowUnit) {
+    this(numberOfSignificantValueDigits, window, windowUnit, Clock.defaultClock());
+  }
+
+  HdrHistogramReservoir(final int numberOfSignificantValueDigits, final long window,
+      final TimeUnit windowUnit, final Clock clock) {
+    this(numberOfSignificantValueDigits, CHUNKS,
+        Math.max(1, windowUnit.toNanos(window) / CHUNKS), clock);
+  }
+
+  private HdrHistogramReservoir(final int numberOfSignificantValueDigits, final int chunks,
+      final long chunkNanos, final Clock clock) {
+    this.recorder = new Recorder(numberOfSignificantValueDigits);
+    this.clock = clock;
+    this.chunkNanos = chunkNanos;
+    if (chunks > 0) {
+      this.chunks = new Histogram[chunks];
+      for (int i = 0; i < chunks; i++) {
+        this.chunks[i] = new Histogram(numberOfSignificantValueDigits);
+      }
+      this.merged = chunks > 1 ? new Histogram(numberOfSignificantValueDigits) : null;
+    } else {
+      this.chunks = null;
+      this.merged = null;
+    }
+    this.nextRotation = clock.getTick() + chunkNanos;
+  }
+
+  /**
+   * @param numberOfSignificantValueDigits the precision of the recorded values, between 0 and 5
+   * @return a reservoir whose snapshots contain only the values since the previous snapshot
+   */
+  public static HdrHistogramReservoir intervals(final int numberOfSignificantValueDigits) {
+    return new HdrHistogramReservoir(numberOfSignificantValueDigits, 0, 0,
+        Clock.defaultClock());
+  }
+
+  /**
+   * @param numberOfSignificantValueDigits the precision of the recorded values, between 0 and 5
+   * @return a reservoir whose snapshots contain all values recorded so far
+   */
+  public static HdrHistogramReservoir cumulative(final int numberOfSignificantValueDigits) {
+    return new HdrHistogramReservoir(numberOfSignificantValueDigits, 1, 0,
+        Clock.defaultClock());
+  }
+
+  /**
+   * @return the number of values in the last snapshot
+   */
+  @Override
+  public int size() {
+    return lastSize;
+  }
+
+  @Override
+  public void update(final long value) {
+    if (chunkNanos > 0) {
+      final long now = clock.getTick();
+      if (now - nextRotation >= 0) {
+        rotate(now);
+      }
+    }
+    recorder.recordValue(value);
+  }
+
+  @Override
+  public synchronized Snapshot getSnapshot() {
+    rotate(clock.getTick());
+    intervalHistogram = recorder.getIntervalHistogram(intervalHistogram);
+    final Histogram copy;
+    if (chunks == null) {
+      copy = intervalHistogram.copy();
+    } else {
+      chunks[position].add(intervalHistogram);
+      if (merged == null) {
+        copy = chunks[position].copy();
+      } else {
+        merged.reset();
+        for (final Histogram chunk : chunks) {
+          merged.add(chunk);
+        }
+        copy = merged.copy();
+      }
+    }
+    lastSize = (int) Math.min(Integer.MAX_VALUE, copy.getTotalCount());
+    return new HistogramSnapshot(copy);
+  }
+
+  /**
+   * Moves the values recorded so far into the current chunk, and starts the chunks due until now
+   * with no values.
+   */
+  private synchronized void rotate(final long now) {
+    final long behind = now - nextRotation;
+    if (chunkNanos == 0 || behind < 0) {
+      return;
+    }
+    intervalHistogram = recorder.getIntervalHistogram(intervalHistogram);
+    chunks[position].add(intervalHistogram);
+    final long due = behind / chunkNanos + 1;
+    for (long i = 0; i < Math.min(due, chunks.length); i++) {
+      position = (position + 1) % chunks.length;
+      chunks[position].reset();
+    }
+    nextRotation += due * chunkNanos;
+  }
+
+  private static class HistogramSnapshot extends Snapshot {
+
+    private final Histogram histogram;
+
+    HistogramSnapshot(final Histogram histogram) {
+      this.histogram = histogram;
+    }
+
+    @Override
+    public double getValue(final double quantile) {
+      return histogram.getValueAtPercentile(quantile * 100);
+    }
+
+    /**
+     * @return one value per recorded bucket of the histogram, instead of every single value
+     */
+    @Override
+    public long[] getValues() {
+      final long[] values = new long[countBuckets()];
+      int i = 0;
+      for (final HistogramIterationValue value : histogram.recordedValues()) {
+        values[i++] = value.getValueIteratedTo();
+      }
+      return values;
+    }
+
+    private int countBuckets() {
+      int buckets = 0;
+      for (final HistogramIterationValue ignored : histogram.recordedValues()) {
+        buckets++;
+      }
+      return buckets;
+    }
+
+    @Override
+    public int size() {
+      return (int) Math.min(Integer.MAX_VALUE, histogram.getTotalCount());
+    }
+
+    @Override
+    public long getMax() {
+      return histogram.getTotalCount() == 0 ? 0 : histogram.getMaxValue();
+    }
+
+    @Override
+    public double getMean() {
+      return histogram.getTotalCount() == 0 ? 0 : histogram.getMean();
+    }
+
+    @Override
+    public long getMin() {
+      return histogram.getTotalCount() == 0 ? 0 : histogram.getMinValue();
+    }
+
+    @Override
+    public double getStdDev() {
+      return histogram.getTotalCount() == 0 ? 0 : histogram.getStdDeviation();
+    }
+
+    @Override
+    public void dump(final OutputStream output) {
+      try (PrintWriter out =
+          new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+        for (final HistogramIterationValue value : histogram.recordedValues()) {
+          out.printf("%d%n", value.getValueIteratedTo());
+        }
+      }
+    }
+  }
+}
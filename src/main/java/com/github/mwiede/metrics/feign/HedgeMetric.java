@@ -0,0 +1,102 @@
+package com.github.mwiede.metrics.feign;
+
+import static com.github.mwiede.metrics.feign.FeignMetricsInvocationHandlerFactoryDecorator.partMeter;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+/**
+ * The state of hedging the requests of a method: the latency after which a request is hedged, taken
+ * from a timer of the method, the budget of hedges, and meters {@code hedges.Metered} of hedges
+ * sent, {@code hedgesWon.Metered} of hedges which responded first and
+ * {@code hedgeBudgetExhausted.Metered} of requests which were not hedged for lack of budget.
+ */
+class HedgeMetric {
+  private static final long REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+  /**
+   * The minimum number of latencies before requests are hedged.
+   */
+  private static final int MIN_SAMPLES = 20;
+  /**
+   * The budget is kept in thousandths of a hedge.
+   */
+  private static final long ONE_HEDGE = 1000;
+  private static final long MAX_BUDGET = 10 * ONE_HEDGE;
+
+  final boolean idempotent;
+  final Meter sent;
+  final Meter won;
+  final Meter budgetExhausted;
+  private final Timer latency;
+  private final double quantile;
+  private final long budgetPerRequest;
+  private final AtomicLong budget = new AtomicLong(MAX_BUDGET);
+  private volatile long thresholdNanos = Long.MAX_VALUE;
+  private volatile long refreshed = System.nanoTime() - REFRESH_NANOS;
+
+  HedgeMetric(final MetricRegistry registry, final Method method, final String dimension,
+      final boolean idempotent, final Timer latency, final double quantile,
+      final double maxHedgeRatio, final Map<String, Metric> registered) {
+    this.idempotent = idempotent;
+    this.latency = latency;
+    this.quantile = quantile;
+    this.budgetPerRequest = Math.round(maxHedgeRatio * ONE_HEDGE);
+    this.sent = partMeter(registry, method, dimension, "hedges", registered);
+    this.won = partMeter(registry, method, dimension, "hedgesWon", registered);
+    this.budgetExhausted =
+        partMeter(registry, method, dimension, "hedgeBudgetExhausted", registered);
+  }
+
+  /**
+   * @return the latency after which a request is hedged, or {@link Long#MAX_VALUE} while too few
+   *         latencies are known
+   */
+  long thresholdNanos() {
+    final long now = System.nanoTime();
+    // refreshed as soon as enough latencies are known, and periodically afterwards
+    if (now - refreshed >= REFRESH_NANOS
+        || thresholdNanos == Long.MAX_VALUE && latency.getCount() >= MIN_SAMPLES) {
+      refreshed = now;
+      final Snapshot snapshot = latency.getSnapshot();
+      thresholdNanos = snapshot.size() >= MIN_SAMPLES
+          ? Math.max(1, (long) snapshot.getValue(quantile))
+          : Long.MAX_VALUE;
+    }
+    return thresholdNanos;
+  }
+
+  /**
+   * Adds the share of a request to the budget.
+   */
+  void deposit() {
+    long current;
+    do {
+      current = budget.get();
+      if (current >= MAX_BUDGET) {
+        return;
+      }
+    } while (!budget.compareAndSet(current, Math.min(MAX_BUDGET, current + budgetPerRequest)));
+  }
+
+  /**
+   * @return {@code false} if the budget does not allow another hedge
+   */
+  boolean withdraw() {
+    long current;
+    do {
+      current = budget.get();
+      if (current < ONE_HEDGE) {
+        return false;
+      }
+    } while (!budget.compareAndSet(current, current - ONE_HEDGE));
+    return true;
+  }
+}
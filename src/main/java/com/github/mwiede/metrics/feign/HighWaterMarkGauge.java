@@ -0,0 +1,33 @@
+package com.github.mwiede.metrics.feign;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+
+/**
+ * A gauge of the highest value of a counter since the gauge was last read, which is reset to the
+ * current value of the counter on each read.
+ */
+class HighWaterMarkGauge implements Gauge<Long> {
+  private final Counter counter;
+  private final AtomicLong max = new AtomicLong();
+
+  HighWaterMarkGauge(final Counter counter) {
+    this.counter = counter;
+  }
+
+  void update(final long value) {
+    long current = max.get();
+    // only contended while the high water mark rises
+    while (value > current && !max.compareAndSet(current, value)) {
+      current = max.get();
+    }
+  }
+
+  @Override
+  public Long getValue() {
+    final long current = counter.getCount();
+    return Math.max(max.getAndSet(current), current);
+  }
+}
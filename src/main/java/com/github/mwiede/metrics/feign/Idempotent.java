@@ -0,0 +1,17 @@
+package com.github.mwiede.metrics.feign;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks methods which may be sent twice without changing the result, so their requests may be
+ * hedged, see {@link AnnotionMetricsCapability.Builder#hedgeIdempotentRequests}. Requests with the
+ * methods GET, HEAD and OPTIONS are considered idempotent without it. Like the metric annotations,
+ * it can be put on the interface or on single methods.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface Idempotent {
+}
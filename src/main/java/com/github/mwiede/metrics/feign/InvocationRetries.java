@@ -0,0 +1,80 @@
+package com.github.mwiede.metrics.feign;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accumulates the attempts and backoff of the synchronous invocation running on the current
+ * thread, so that {@link RetryMetrics} are published once the invocation ends instead of on every
+ * retry. Feign retries on the invoking thread, so the state is kept in a threadlocal and reused by
+ * all invocations of the thread.
+ */
+class InvocationRetries {
+
+  /**
+   * The durations of attempts beyond this number are not published individually.
+   */
+  private static final int MAX_ATTEMPTS = 16;
+
+  private static final ThreadLocal<InvocationRetries> CURRENT =
+      ThreadLocal.withInitial(InvocationRetries::new);
+
+  private final long[] attemptNanos = new long[MAX_ATTEMPTS];
+  private boolean active;
+  private int attempts;
+  private long backoffNanos;
+
+  /**
+   * Starts accumulating for an invocation on the current thread.
+   *
+   * @return the state to end the invocation with, or {@code null} if an invocation on this thread
+   *         is already accumulating, like a client invoked from within a decoder
+   */
+  static InvocationRetries begin() {
+    final InvocationRetries retries = CURRENT.get();
+    if (retries.active) {
+      return null;
+    }
+    retries.active = true;
+    retries.attempts = 0;
+    retries.backoffNanos = 0;
+    return retries;
+  }
+
+  /**
+   * @return the state of the invocation on the current thread, or {@code null} if none is
+   *         accumulating
+   */
+  static InvocationRetries current() {
+    final InvocationRetries retries = CURRENT.get();
+    return retries.active ? retries : null;
+  }
+
+  void attempted(final long nanos) {
+    if (attempts < MAX_ATTEMPTS) {
+      attemptNanos[attempts] = nanos;
+    }
+    attempts++;
+  }
+
+  void backedOff(final long nanos) {
+    backoffNanos += nanos;
+  }
+
+  /**
+   * Publishes the accumulated attempts and ends the invocation.
+   */
+  void end(final RetryMetrics metrics) {
+    active = false;
+    if (attempts == 0) {
+      // the invocation failed before a request was sent
+      return;
+    }
+    metrics.attempts.update(attempts);
+    for (int i = 0; i < Math.min(attempts, MAX_ATTEMPTS); i++) {
+      metrics.attempt.update(attemptNanos[i], TimeUnit.NANOSECONDS);
+    }
+    if (attempts > 1) {
+      metrics.backoff.update(backoffNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+}
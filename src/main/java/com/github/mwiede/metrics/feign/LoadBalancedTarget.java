@@ -0,0 +1,128 @@
+package com.github.mwiede.metrics.feign;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.codahale.metrics.Clock;
+
+import feign.Request;
+import feign.RequestTemplate;
+import feign.Target;
+
+/**
+ * A {@link Target} of several endpoints serving the same api, among which the
+ * {@link AnnotionMetricsCapability} chooses one for each request by their latency and requests in
+ * flight. Its url is the logical {@code http://<name>}, which is replaced by the url of the chosen
+ * endpoint, so the capability must be added to the client with
+ * {@link AnnotionMetricsCapability.Builder#balanceLoad()}.
+ *
+ * <pre>
+ * GitHub github = Feign.builder()
+ *     .addCapability(AnnotionMetricsCapability.builder(metricRegistry).balanceLoad().build())
+ *     .target(new LoadBalancedTarget&lt;&gt;(GitHub.class, "github",
+ *         "https://replica1.example.com", "https://replica2.example.com"));
+ * </pre>
+ */
+public class LoadBalancedTarget<T> implements Target<T> {
+
+  private final Class<T> type;
+  private final String name;
+  private final String url;
+  final LoadBalancer balancer;
+  private final int hash;
+
+  public LoadBalancedTarget(final Class<T> type, final String name, final String... endpoints) {
+    this(type, name, Arrays.asList(endpoints));
+  }
+
+  /**
+   * @param type the type of the client
+   * @param name the name of the target, which forms its logical url
+   * @param endpoints the base urls of the endpoints
+   */
+  public LoadBalancedTarget(final Class<T> type, final String name,
+      final List<String> endpoints) {
+    this(type, name, endpoints, Clock.defaultClock());
+  }
+
+  LoadBalancedTarget(final Class<T> type, final String name, final List<String> endpoints,
+      final Clock clock) {
+    if (endpoints.isEmpty()) {
+      throw new IllegalArgumentException("at least one endpoint is required");
+    }
+    this.type = type;
+    this.name = name;
+    this.url = "http://" + name;
+    this.balancer = new LoadBalancer(type, endpoints, clock);
+    int hash = type.hashCode() * 31 + name.hashCode();
+    for (final LoadBalancer.Endpoint endpoint : balancer.endpoints) {
+      hash = hash * 31 + endpoint.url.hashCode();
+    }
+    this.hash = hash;
+  }
+
+  @Override
+  public Class<T> type() {
+    return type;
+  }
+
+  @Override
+  public String name() {
+    return name;
+  }
+
+  @Override
+  public String url() {
+    return url;
+  }
+
+  /**
+   * @return the base urls of the endpoints
+   */
+  public List<String> endpoints() {
+    final List<String> urls = new ArrayList<>(balancer.endpoints.length);
+    for (final LoadBalancer.Endpoint endpoint : balancer.endpoints) {
+      urls.add(endpoint.url);
+    }
+    return Collections.unmodifiableList(urls);
+  }
+
+  @Override
+  public Request apply(final RequestTemplate input) {
+    if (input.url().indexOf("http") != 0) {
+      input.target(url());
+    }
+    return input.request();
+  }
+
+  @Override
+  public boolean equals(final Object obj) {
+    if (!(obj instanceof LoadBalancedTarget)) {
+      return false;
+    }
+    final LoadBalancedTarget<?> other = (LoadBalancedTarget<?>) obj;
+    if (hash != other.hash || !type.equals(other.type) || !name.equals(other.name)
+        || balancer.endpoints.length != other.balancer.endpoints.length) {
+      return false;
+    }
+    for (int i = 0; i < balancer.endpoints.length; i++) {
+      if (!balancer.endpoints[i].url.equals(other.balancer.endpoints[i].url)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return "LoadBalancedTarget(type=" + type.getSimpleName() + ", name=" + name + ", endpoints="
+        + endpoints() + ")";
+  }
+}
@@ -0,0 +1,168 @@
+package com.github.mwiede.metrics.feign;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Chooses the endpoint of a {@link LoadBalancedTarget} by the power of two choices: of two random
+ * endpoints, the one with the lower cost is taken, where the cost is the peak EWMA of its latency
+ * times its requests in flight plus one. The EWMA follows rising latencies at once and decays towards
+ * lower ones, so endpoints which were not chosen for a while are tried again. An endpoint without a
+ * response yet is tried first, but each of its requests in flight counts with a latency of
+ * {@link #FAILURE_PENALTY_NANOS}, so it is not flooded before its latency is known. A failed request
+ * counts with a latency of at least {@link #FAILURE_PENALTY_NANOS}.
+ */
+class LoadBalancer {
+
+  /**
+   * The time constant of the decay of the EWMA.
+   */
+  private static final double DECAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+  /**
+   * The weight of a latency below the EWMA, so that a peak fades gradually.
+   */
+  private static final double SMOOTHING = 0.1;
+  static final long FAILURE_PENALTY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final Class<?> type;
+  final Endpoint[] endpoints;
+  /**
+   * The source of the time of requests, in nanoseconds.
+   */
+  final Clock clock;
+  private volatile boolean registered;
+
+  LoadBalancer(final Class<?> type, final List<String> urls, final Clock clock) {
+    this.type = type;
+    this.clock = clock;
+    this.endpoints = new Endpoint[urls.size()];
+    for (int i = 0; i < endpoints.length; i++) {
+      endpoints[i] = new Endpoint(urls.get(i), clock);
+    }
+  }
+
+  /**
+   * Registers the timer {@code <type>.endpoints.<host_port>.Timed} and the meter
+   * {@code <type>.endpoints.<host_port>.selected} of each endpoint, once.
+   */
+  void register(final MetricRegistry registry) {
+    if (registered) {
+      return;
+    }
+    synchronized (this) {
+      if (!registered) {
+        for (final Endpoint endpoint : endpoints) {
+          final String prefix = name(type, "endpoints", endpoint.segment);
+          endpoint.selected = registry.meter(name(prefix, "selected"));
+          endpoint.timer = registry.timer(name(prefix, "Timed"));
+        }
+        registered = true;
+      }
+    }
+  }
+
+  /**
+   * @return the chosen endpoint, whose request is already counted in flight
+   */
+  Endpoint choose() {
+    Endpoint chosen = endpoints[0];
+    if (endpoints.length > 1) {
+      final ThreadLocalRandom random = ThreadLocalRandom.current();
+      final int first = random.nextInt(endpoints.length);
+      int second = random.nextInt(endpoints.length - 1);
+      if (second >= first) {
+        second++;
+      }
+      final long now = clock.getTick();
+      chosen = endpoints[first].cost(now) <= endpoints[second].cost(now) ? endpoints[first]
+          : endpoints[second];
+    }
+    chosen.inFlight.incrementAndGet();
+    chosen.selected.mark();
+    return chosen;
+  }
+
+  static final class Endpoint {
+    final String url;
+    /**
+     * The host and port of the url, as a single segment of a metric name.
+     */
+    final String segment;
+    final AtomicInteger inFlight = new AtomicInteger();
+    volatile Meter selected;
+    volatile Timer timer;
+    private final Clock clock;
+
+    /**
+     * Guarded by this.
+     */
+    private double ewmaNanos;
+    private boolean responded;
+    private long stamp;
+
+    Endpoint(final String url, final Clock clock) {
+      this.url = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+      this.segment = TargetDimensions.sanitize(authority(this.url));
+      this.clock = clock;
+      this.stamp = clock.getTick();
+    }
+
+    private static String authority(final String url) {
+      try {
+        final String authority = URI.create(url).getAuthority();
+        return authority != null ? authority : url;
+      } catch (final IllegalArgumentException e) {
+        return url;
+      }
+    }
+
+    double cost(final long now) {
+      final double ewma;
+      synchronized (this) {
+        if (!responded) {
+          return (double) FAILURE_PENALTY_NANOS * inFlight.get();
+        }
+        ewma = decay(now);
+      }
+      return ewma * (inFlight.get() + 1);
+    }
+
+    /**
+     * Ends a request of the endpoint.
+     *
+     * @param rttNanos the latency of the request
+     * @param failed whether the request failed
+     */
+    void release(final long rttNanos, final boolean failed) {
+      inFlight.decrementAndGet();
+      timer.update(rttNanos, TimeUnit.NANOSECONDS);
+      final long latency = failed ? Math.max(rttNanos, FAILURE_PENALTY_NANOS) : rttNanos;
+      synchronized (this) {
+        final double decayed = decay(clock.getTick());
+        ewmaNanos = latency > decayed || !responded ? latency
+            : decayed + (latency - decayed) * SMOOTHING;
+        responded = true;
+      }
+    }
+
+    /**
+     * Decays the EWMA towards zero for the time since it was last updated.
+     */
+    private double decay(final long now) {
+      final long elapsed = Math.max(0, now - stamp);
+      stamp = Math.max(stamp, now);
+      ewmaNanos *= Math.exp(-elapsed / DECAY_NANOS);
+      return ewmaNanos;
+    }
+  }
+}
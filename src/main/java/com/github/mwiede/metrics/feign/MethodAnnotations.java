@@ -0,0 +1,92 @@
+package com.github.mwiede.metrics.feign;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.codahale.metrics.annotation.Counted;
+import com.codahale.metrics.annotation.ExceptionMetered;
+import com.codahale.metrics.annotation.Metered;
+import com.codahale.metrics.annotation.ResponseMetered;
+import com.codahale.metrics.annotation.Timed;
+
+/**
+ * The annotations in effect for a method. They are resolved once for all methods of an interface
+ * and cached per interface, so targets of the same interface share them.
+ * <p>
+ * An annotation of the interface applies to all of its methods. For the metric annotations, it
+ * takes precedence over the one of a method. The annotations which configure how a single method
+ * is measured or served, {@link TimerReservoir} and {@link ResponseCached}, follow the opposite
+ * rule: the more specific annotation of the method overrides the one of the interface.
+ */
+final class MethodAnnotations {
+
+  private static final ClassValue<Map<Method, MethodAnnotations>> OF_INTERFACE =
+      new ClassValue<Map<Method, MethodAnnotations>>() {
+        @Override
+        protected Map<Method, MethodAnnotations> computeValue(final Class<?> type) {
+          final MethodAnnotations classLevel = new MethodAnnotations(type);
+          final Map<Method, MethodAnnotations> annotations = new HashMap<>();
+          for (final Method method : type.getDeclaredMethods()) {
+            annotations.put(method, new MethodAnnotations(method, classLevel));
+          }
+          return annotations;
+        }
+      };
+
+  final Timed timed;
+  final Metered metered;
+  final ResponseMetered responseMetered;
+  final ExceptionMetered exceptionMetered;
+  final Counted counted;
+  final TimerReservoir timerReservoir;
+  final ResponseCached responseCached;
+  final boolean idempotent;
+
+  private MethodAnnotations(final Class<?> type) {
+    this.timed = type.getAnnotation(Timed.class);
+    this.metered = type.getAnnotation(Metered.class);
+    this.responseMetered = type.getAnnotation(ResponseMetered.class);
+    this.exceptionMetered = type.getAnnotation(ExceptionMetered.class);
+    this.counted = type.getAnnotation(Counted.class);
+    this.timerReservoir = type.getAnnotation(TimerReservoir.class);
+    this.responseCached = type.getAnnotation(ResponseCached.class);
+    this.idempotent = type.isAnnotationPresent(Idempotent.class);
+  }
+
+  private MethodAnnotations(final Method method, final MethodAnnotations classLevel) {
+    this.timed = orMethodLevel(classLevel.timed, method, Timed.class);
+    this.metered = orMethodLevel(classLevel.metered, method, Metered.class);
+    this.responseMetered =
+        orMethodLevel(classLevel.responseMetered, method, ResponseMetered.class);
+    this.exceptionMetered =
+        orMethodLevel(classLevel.exceptionMetered, method, ExceptionMetered.class);
+    this.counted = orMethodLevel(classLevel.counted, method, Counted.class);
+    this.timerReservoir =
+        orInterfaceLevel(classLevel.timerReservoir, method, TimerReservoir.class);
+    this.responseCached =
+        orInterfaceLevel(classLevel.responseCached, method, ResponseCached.class);
+    this.idempotent = classLevel.idempotent || method.isAnnotationPresent(Idempotent.class);
+  }
+
+  private static <T extends Annotation> T orMethodLevel(final T classLevel, final Method method,
+      final Class<T> annotationClass) {
+    return classLevel != null ? classLevel : method.getAnnotation(annotationClass);
+  }
+
+  private static <T extends Annotation> T orInterfaceLevel(final T classLevel,
+      final Method method, final Class<T> annotationClass) {
+    final T methodLevel = method.getAnnotation(annotationClass);
+    return methodLevel != null ? methodLevel : classLevel;
+  }
+
+  /**
+   * @return the annotations in effect for the given method
+   */
+  static MethodAnnotations of(final Method method) {
+    final MethodAnnotations annotations = OF_INTERFACE.get(method.getDeclaringClass()).get(method);
+    return annotations != null ? annotations
+        : new MethodAnnotations(method, new MethodAnnotations(method.getDeclaringClass()));
+  }
+}
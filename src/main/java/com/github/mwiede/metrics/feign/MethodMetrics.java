@@ -0,0 +1,230 @@
+package com.github.mwiede.metrics.feign;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.annotation.Timed;
+
+/**
+ * A bundle of all metrics registered for a single method. It is resolved once in
+ * {@link FeignMetricsInvocationHandlerFactoryDecorator#create}, so that the invocation itself only
+ * reads final fields. Each metric is {@code null} if the corresponding annotation is absent. Only
+ * the state used by {@link MetricsLifecycle} is mutable.
+ */
+class MethodMetrics {
+  public final Method method;
+  /**
+   * Whether the method returns a {@link CompletableFuture}, as methods of {@link feign.AsyncFeign}
+   * targets do.
+   */
+  public final boolean async;
+  public final Timer timer;
+  /**
+   * The {@link #timer} if timers are sampled, which decides whether an invocation is timed.
+   */
+  public final SampledTimer sampledTimer;
+  /**
+   * Timer for the time an asynchronous request waits for an executor thread, only present for
+   * {@link #async} methods annotated with {@link Timed}.
+   */
+  public final Timer queueWaitTimer;
+  /**
+   * Timers of the phases of an invocation, only present for methods annotated with {@link Timed}
+   * if phase timers are enabled.
+   */
+  public final PhaseTimers phaseTimers;
+  /**
+   * Metrics of the retries of synchronous invocations, only present if retry metrics are enabled.
+   */
+  public final RetryMetrics retryMetrics;
+  public final Meter meter;
+  public final CounterMetric counter;
+  public final ResponseMeterMetric responseMeters;
+  public final ExceptionMeterMetric exceptionMeter;
+  /**
+   * Histograms of the sizes of request and response bodies in bytes, only present if payload sizes
+   * are enabled.
+   */
+  public final Histogram requestSize;
+  public final Histogram responseSize;
+  /**
+   * Buffers the marks of the {@link #meter} and the durations of the {@link #timer}, only present
+   * if recording is buffered.
+   */
+  final BufferedRecording.MethodBuffer buffer;
+  /**
+   * The adaptive concurrency limit of the method, only present if it is enabled.
+   */
+  final ConcurrencyLimitMetric concurrencyLimit;
+  /**
+   * The state of hedging the requests of the method, only present for methods annotated with
+   * {@link Timed} if hedging is enabled.
+   */
+  final HedgeMetric hedge;
+  /**
+   * The meters of coalesced GET and HEAD requests of the method, only present if coalescing is
+   * enabled.
+   */
+  final CoalescingMeters coalescing;
+  /**
+   * The cached responses of the method, only present for methods annotated with
+   * {@link ResponseCached}.
+   */
+  final ResponseCache cache;
+  /**
+   * The metrics above by their names in the registry, except the lazily registered meters of exact
+   * status codes.
+   */
+  final Map<String, Metric> registered;
+
+  /**
+   * Set on invocation and reset by the idle eviction of {@link MetricsLifecycle}.
+   */
+  volatile boolean touched;
+  /**
+   * Set once the metrics were released by {@link MetricsLifecycle}.
+   */
+  volatile boolean evicted;
+  /**
+   * The time the metrics were last seen touched, guarded by the {@link MetricsLifecycle}.
+   */
+  long lastActive;
+
+  private MethodMetrics(final Builder builder) {
+    this.method = builder.method;
+    this.async = CompletableFuture.class.isAssignableFrom(method.getReturnType());
+    this.timer = builder.timer;
+    this.sampledTimer = timer instanceof SampledTimer ? (SampledTimer) timer : null;
+    this.queueWaitTimer = builder.queueWaitTimer;
+    this.phaseTimers = builder.phaseTimers;
+    this.retryMetrics = builder.retryMetrics;
+    this.meter = builder.meter;
+    this.counter = builder.counter;
+    this.responseMeters = builder.responseMeters;
+    this.exceptionMeter = builder.exceptionMeter;
+    this.requestSize = builder.requestSize;
+    this.responseSize = builder.responseSize;
+    this.buffer = builder.buffer;
+    this.concurrencyLimit = builder.concurrencyLimit;
+    this.hedge = builder.hedge;
+    this.coalescing = builder.coalescing;
+    this.cache = builder.cache;
+    this.registered = builder.registered;
+  }
+
+  /**
+   * Collects the metrics of a method, of which all are absent unless they are set.
+   */
+  static class Builder {
+    private final Method method;
+    private Timer timer;
+    private Timer queueWaitTimer;
+    private PhaseTimers phaseTimers;
+    private RetryMetrics retryMetrics;
+    private Meter meter;
+    private CounterMetric counter;
+    private ResponseMeterMetric responseMeters;
+    private ExceptionMeterMetric exceptionMeter;
+    private Histogram requestSize;
+    private Histogram responseSize;
+    private BufferedRecording.MethodBuffer buffer;
+    private ConcurrencyLimitMetric concurrencyLimit;
+    private HedgeMetric hedge;
+    private CoalescingMeters coalescing;
+    private ResponseCache cache;
+    private Map<String, Metric> registered = Collections.emptyMap();
+
+    Builder(final Method method) {
+      this.method = method;
+    }
+
+    Builder timer(final Timer timer) {
+      this.timer = timer;
+      return this;
+    }
+
+    Builder queueWaitTimer(final Timer queueWaitTimer) {
+      this.queueWaitTimer = queueWaitTimer;
+      return this;
+    }
+
+    Builder phaseTimers(final PhaseTimers phaseTimers) {
+      this.phaseTimers = phaseTimers;
+      return this;
+    }
+
+    Builder retryMetrics(final RetryMetrics retryMetrics) {
+      this.retryMetrics = retryMetrics;
+      return this;
+    }
+
+    Builder meter(final Meter meter) {
+      this.meter = meter;
+      return this;
+    }
+
+    Builder counter(final CounterMetric counter) {
+      this.counter = counter;
+      return this;
+    }
+
+    Builder responseMeters(final ResponseMeterMetric responseMeters) {
+      this.responseMeters = responseMeters;
+      return this;
+    }
+
+    Builder exceptionMeter(final ExceptionMeterMetric exceptionMeter) {
+      this.exceptionMeter = exceptionMeter;
+      return this;
+    }
+
+    Builder payloadSizes(final Histogram requestSize, final Histogram responseSize) {
+      this.requestSize = requestSize;
+      this.responseSize = responseSize;
+      return this;
+    }
+
+    Builder buffer(final BufferedRecording.MethodBuffer buffer) {
+      this.buffer = buffer;
+      return this;
+    }
+
+    Builder concurrencyLimit(final ConcurrencyLimitMetric concurrencyLimit) {
+      this.concurrencyLimit = concurrencyLimit;
+      return this;
+    }
+
+    Builder hedge(final HedgeMetric hedge) {
+      this.hedge = hedge;
+      return this;
+    }
+
+    Builder coalescing(final CoalescingMeters coalescing) {
+      this.coalescing = coalescing;
+      return this;
+    }
+
+    Builder cache(final ResponseCache cache) {
+      this.cache = cache;
+      return this;
+    }
+
+    /**
+     * @param registered the metrics set above by their names in the registry
+     */
+    Builder registered(final Map<String, Metric> registered) {
+      this.registered = registered;
+      return this;
+    }
+
+    MethodMetrics build() {
+      return new MethodMetrics(this);
+    }
+  }
+}
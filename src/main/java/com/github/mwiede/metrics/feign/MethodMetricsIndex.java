@@ -0,0 +1,155 @@
+package com.github.mwiede.metrics.feign;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import feign.Feign;
+import feign.MethodMetadata;
+import feign.Request;
+import feign.RequestTemplate;
+import feign.Target;
+
+/**
+ * An index from Feign's config key to the {@link MethodMetrics} of a method. It is filled by
+ * {@link FeignMetricsInvocationHandlerFactoryDecorator#create(Target, java.util.Map)} and allows
+ * other decorators to resolve the metrics of the invoked method from the {@link MethodMetadata} and
+ * {@link Target} carried by a {@link Request}, instead of reading a threadlocal.
+ * <p>
+ * Config keys only contain the simple name of the target type, and the metrics of a method may be
+ * dimensioned by target, so the index is partitioned by the type and dimension of the target. Their
+ * number is bounded by {@link TargetDimensions}, so clients created per request do not grow it.
+ * Clients of the same type and dimension share an entry, which is removed with the last of them.
+ * The partition of each target is resolved once, when its first client registers, so looking up
+ * the metrics of a request neither locks nor allocates. Beyond {@link #MAX_TARGETS} targets, and for
+ * targets without registered clients, the partition is resolved on each lookup instead.
+ */
+class MethodMetricsIndex {
+
+  /**
+   * The maximum number of targets whose partition is kept.
+   */
+  static final int MAX_TARGETS = 10_000;
+
+  private final TargetDimensions dimensions;
+  private final ConcurrentMap<Partition, ConcurrentMap<String, Entry>> index =
+      new ConcurrentHashMap<>();
+  /**
+   * The partitions of the targets of registered clients.
+   */
+  private final ConcurrentMap<Target<?>, Resolved> targets = new ConcurrentHashMap<>();
+
+  /**
+   * @param dimensions the dimensions of targets, or {@code null} if metrics are not dimensioned
+   */
+  MethodMetricsIndex(final TargetDimensions dimensions) {
+    this.dimensions = dimensions;
+  }
+
+  void register(final Target<?> target, final Method method, final MethodMetrics metrics) {
+    final Partition partition;
+    if (targets.size() < MAX_TARGETS || targets.containsKey(target)) {
+      partition = targets.compute(target,
+          (t, resolved) -> resolved == null ? new Resolved(resolve(t), 1)
+              : new Resolved(resolved.partition, resolved.references + 1)).partition;
+    } else {
+      partition = partition(target);
+    }
+    index.computeIfAbsent(partition, p -> new ConcurrentHashMap<>())
+        .compute(Feign.configKey(target.type(), method),
+            (key, entry) -> new Entry(metrics, entry == null ? 1 : entry.references + 1));
+  }
+
+  /**
+   * Removes a registration of the metrics of a method. The entry is kept for the other clients of
+   * the partition, which keep using it until they are released as well.
+   */
+  void remove(final Target<?> target, final Method method, final MethodMetrics metrics) {
+    final Partition partition = partition(target);
+    targets.computeIfPresent(target, (t, r) -> r.references <= 1 ? null
+        : new Resolved(r.partition, r.references - 1));
+    index.computeIfPresent(partition, (p, metricsOfPartition) -> {
+      metricsOfPartition.computeIfPresent(Feign.configKey(target.type(), method),
+          (key, entry) -> entry.references <= 1 ? null
+              : new Entry(entry.metrics, entry.references - 1));
+      return metricsOfPartition.isEmpty() ? null : metricsOfPartition;
+    });
+  }
+
+  /**
+   * @return the metrics of the method which created the given request, or {@code null} if the
+   *         request does not carry its method metadata or the method is unknown.
+   */
+  MethodMetrics get(final Request request) {
+    final RequestTemplate template = request.requestTemplate();
+    if (template == null) {
+      return null;
+    }
+    return get(template.feignTarget(), template.methodMetadata());
+  }
+
+  MethodMetrics get(final Target<?> target, final MethodMetadata metadata) {
+    if (target == null || metadata == null) {
+      return null;
+    }
+    final ConcurrentMap<String, Entry> metrics = index.get(partition(target));
+    final Entry entry = metrics == null ? null : metrics.get(metadata.configKey());
+    return entry == null ? null : entry.metrics;
+  }
+
+  private Partition partition(final Target<?> target) {
+    final Resolved resolved = targets.get(target);
+    return resolved != null ? resolved.partition : resolve(target);
+  }
+
+  private Partition resolve(final Target<?> target) {
+    return new Partition(target.type(), dimensions == null ? "" : dimensions.of(target));
+  }
+
+  private static final class Entry {
+    final MethodMetrics metrics;
+    final int references;
+
+    Entry(final MethodMetrics metrics, final int references) {
+      this.metrics = metrics;
+      this.references = references;
+    }
+  }
+
+  private static final class Resolved {
+    final Partition partition;
+    /**
+     * The number of registrations of methods of the target.
+     */
+    final int references;
+
+    Resolved(final Partition partition, final int references) {
+      this.partition = partition;
+      this.references = references;
+    }
+  }
+
+  private static final class Partition {
+    private final Class<?> type;
+    private final String dimension;
+
+    Partition(final Class<?> type, final String dimension) {
+      this.type = type;
+      this.dimension = dimension;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (!(obj instanceof Partition)) {
+        return false;
+      }
+      final Partition other = (Partition) obj;
+      return type == other.type && dimension.equals(other.dimension);
+    }
+
+    @Override
+    public int hashCode() {
+      return type.hashCode() * 31 + dimension.hashCode();
+    }
+  }
+}
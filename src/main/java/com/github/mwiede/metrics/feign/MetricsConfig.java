@@ -0,0 +1,359 @@
+package com.github.mwiede.metrics.feign;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import com.codahale.metrics.MetricRegistry.MetricSupplier;
+import com.codahale.metrics.Timer;
+
+/**
+ * The optional features shared by the decorators of one {@link AnnotionMetricsCapability} or
+ * {@link FeignWithMetrics} builder.
+ */
+final class MetricsConfig {
+
+  static final MetricsConfig DEFAULT = new Builder().build();
+
+  /**
+   * If not {@code null}, the metrics of the invoked method are resolved from the request through
+   * this index instead of threadlocals.
+   */
+  final MethodMetricsIndex index;
+
+  /**
+   * Creates the timers of {@link com.codahale.metrics.annotation.Timed} methods, or {@code null} to
+   * use the default timers of the registry.
+   */
+  final MetricSupplier<Timer> timerSupplier;
+
+  /**
+   * Times only one of this number of invocations of {@link com.codahale.metrics.annotation.Timed}
+   * methods, or all of them if it is 1.
+   */
+  final int timerSampleRate;
+
+  /**
+   * If positive, the sample rate of timers is adapted to time at most this number of invocations
+   * per second and method.
+   */
+  final int maxTimerSamplesPerSecond;
+
+  /**
+   * Whether {@link com.codahale.metrics.annotation.ResponseMetered} methods additionally meter each
+   * exact status code.
+   */
+  final boolean detailedResponseMeters;
+
+  /**
+   * If not {@code null}, the metrics of each target are dimensioned by its name or host.
+   */
+  final TargetDimensions targetDimensions;
+
+  /**
+   * Whether the sizes of request and response bodies of each method are recorded.
+   */
+  final boolean payloadSizes;
+
+  /**
+   * Whether the phases of invocations of {@link com.codahale.metrics.annotation.Timed} methods are
+   * timed separately.
+   */
+  final boolean phaseTimers;
+
+  /**
+   * The maximum number of root cause classes metered per
+   * {@link com.codahale.metrics.annotation.ExceptionMetered} method, or 0 to not meter root causes.
+   */
+  final int maxRootCauses;
+
+  /**
+   * Whether the attempts and backoff of synchronous invocations are recorded.
+   */
+  final boolean retryMetrics;
+
+  /**
+   * If not {@code null}, the retries of each target are limited to a ratio of its successful
+   * requests.
+   */
+  final RetryBudgets retryBudgets;
+
+  /**
+   * If positive, the retries of synchronous invocations are made up to this number of attempts, with
+   * a backoff following the latency of the method of up to {@link #maxRetryBackoffNanos}, instead of
+   * by the configured {@link feign.Retryer}.
+   */
+  final int maxRetryAttempts;
+  final long maxRetryBackoffNanos;
+
+  /**
+   * Whether the metrics of a method are registered on its first invocation instead of when the
+   * client is created.
+   */
+  final boolean lazyRegistration;
+
+  /**
+   * If not {@code null}, the meters and timers of methods are recorded into buffers, which are
+   * drained periodically.
+   */
+  final BufferedRecording buffering;
+
+  /**
+   * If positive, the concurrent invocations of each method are limited adaptively, starting from
+   * the initial limit up to this maximum.
+   */
+  final int maxConcurrencyLimit;
+  final int initialConcurrencyLimit;
+
+  /**
+   * If not {@code null}, idempotent requests of {@link com.codahale.metrics.annotation.Timed} methods
+   * are hedged on this executor once they take longer than the quantile of their latency.
+   */
+  final ExecutorService hedgeExecutor;
+  final double hedgeQuantile;
+  final double maxHedgeRatio;
+
+  /**
+   * If not {@code null}, identical GET and HEAD requests in flight are coalesced, where requests are
+   * identical if their method, url and the values of these headers are equal.
+   */
+  final List<String> coalescingHeaders;
+
+  /**
+   * Whether the responses of methods annotated with {@link ResponseCached} are cached.
+   */
+  final boolean responseCaching;
+
+  /**
+   * Whether the requests of a {@link LoadBalancedTarget} are balanced across its endpoints.
+   */
+  final boolean loadBalancing;
+
+  /**
+   * If not {@code null}, the metrics of clients which are no longer used are removed from the
+   * registry.
+   */
+  final MetricsLifecycle lifecycle;
+
+  private MetricsConfig(final Builder builder) {
+    this.index =
+        builder.methodFromRequest ? new MethodMetricsIndex(builder.targetDimensions) : null;
+    this.timerSupplier = builder.timerSupplier;
+    this.timerSampleRate = builder.timerSampleRate;
+    this.maxTimerSamplesPerSecond = builder.maxTimerSamplesPerSecond;
+    this.detailedResponseMeters = builder.detailedResponseMeters;
+    this.targetDimensions = builder.targetDimensions;
+    this.payloadSizes = builder.payloadSizes;
+    this.phaseTimers = builder.phaseTimers;
+    this.maxRootCauses = builder.maxRootCauses;
+    this.retryMetrics = builder.retryMetrics;
+    this.retryBudgets = builder.retryBudgetRatio > 0
+        ? new RetryBudgets(builder.retryBudgetRatio, builder.minRetriesPerSecond,
+            builder.targetDimensions)
+        : null;
+    this.maxRetryAttempts = builder.maxRetryAttempts;
+    this.maxRetryBackoffNanos = builder.maxRetryBackoffNanos;
+    this.lazyRegistration = builder.lazyRegistration;
+    this.initialConcurrencyLimit = builder.initialConcurrencyLimit;
+    this.maxConcurrencyLimit = builder.maxConcurrencyLimit;
+    this.hedgeExecutor = builder.hedgeExecutor;
+    this.hedgeQuantile = builder.hedgeQuantile;
+    this.maxHedgeRatio = builder.maxHedgeRatio;
+    this.coalescingHeaders = builder.coalescingHeaders;
+    this.responseCaching = builder.responseCaching;
+    this.loadBalancing = builder.loadBalancing;
+    this.buffering = builder.flushNanos > 0 ? new BufferedRecording(builder.flushNanos) : null;
+    this.lifecycle = builder.lifecycle ? new MetricsLifecycle(builder.idleNanos) : null;
+  }
+
+  static class Builder {
+    private boolean methodFromRequest;
+    private MetricSupplier<Timer> timerSupplier;
+    private int timerSampleRate = 1;
+    private int maxTimerSamplesPerSecond;
+    private boolean detailedResponseMeters;
+    private TargetDimensions targetDimensions;
+    private boolean payloadSizes;
+    private boolean phaseTimers;
+    private int maxRootCauses;
+    private boolean retryMetrics;
+    private double retryBudgetRatio;
+    private int minRetriesPerSecond;
+    private int maxRetryAttempts;
+    private long maxRetryBackoffNanos;
+    private boolean lazyRegistration;
+    private long flushNanos;
+    private int initialConcurrencyLimit;
+    private int maxConcurrencyLimit;
+    private ExecutorService hedgeExecutor;
+    private double hedgeQuantile;
+    private double maxHedgeRatio;
+    private List<String> coalescingHeaders;
+    private boolean responseCaching;
+    private boolean loadBalancing;
+    private boolean lifecycle;
+    private long idleNanos;
+
+    Builder methodFromRequest() {
+      this.methodFromRequest = true;
+      return this;
+    }
+
+    Builder timerSupplier(final MetricSupplier<Timer> timerSupplier) {
+      this.timerSupplier = timerSupplier;
+      return this;
+    }
+
+    Builder sampleTimers(final int rate) {
+      if (rate <= 0) {
+        throw new IllegalArgumentException("the sample rate must be positive");
+      }
+      this.timerSampleRate = rate;
+      this.maxTimerSamplesPerSecond = 0;
+      return this;
+    }
+
+    Builder sampleTimersAdaptively(final int maxSamplesPerSecond) {
+      if (maxSamplesPerSecond <= 0) {
+        throw new IllegalArgumentException("the maximum number of samples must be positive");
+      }
+      this.timerSampleRate = 1;
+      this.maxTimerSamplesPerSecond = maxSamplesPerSecond;
+      return this;
+    }
+
+    Builder detailedResponseMeters() {
+      this.detailedResponseMeters = true;
+      return this;
+    }
+
+    Builder targetDimensions(final TargetDimensions.Type type, final int maxDimensions) {
+      this.targetDimensions = new TargetDimensions(type, maxDimensions);
+      return this;
+    }
+
+    Builder payloadSizes() {
+      this.payloadSizes = true;
+      return this;
+    }
+
+    Builder phaseTimers() {
+      this.phaseTimers = true;
+      return this;
+    }
+
+    Builder rootCauses(final int maxRootCauses) {
+      if (maxRootCauses <= 0) {
+        throw new IllegalArgumentException("the maximum number of root causes must be positive");
+      }
+      this.maxRootCauses = maxRootCauses;
+      return this;
+    }
+
+    Builder retryMetrics() {
+      this.retryMetrics = true;
+      return this;
+    }
+
+    Builder retryBudget(final double ratio, final int minRetriesPerSecond) {
+      if (ratio <= 0 || ratio > 1) {
+        throw new IllegalArgumentException("the ratio of retries must be positive and at most 1");
+      }
+      if (minRetriesPerSecond < 0) {
+        throw new IllegalArgumentException("the minimum retries per second must not be negative");
+      }
+      this.retryBudgetRatio = ratio;
+      this.minRetriesPerSecond = minRetriesPerSecond;
+      return this;
+    }
+
+    Builder adaptiveBackoff(final int maxAttempts, final long maxBackoffNanos) {
+      if (maxAttempts < 1) {
+        throw new IllegalArgumentException("the maximum number of attempts must be positive");
+      }
+      if (maxBackoffNanos <= 0) {
+        throw new IllegalArgumentException("the maximum backoff must be positive");
+      }
+      this.maxRetryAttempts = maxAttempts;
+      this.maxRetryBackoffNanos = maxBackoffNanos;
+      return this;
+    }
+
+    Builder lazyRegistration() {
+      this.lazyRegistration = true;
+      return this;
+    }
+
+    Builder bufferedRecording(final long flushNanos) {
+      if (flushNanos <= 0) {
+        throw new IllegalArgumentException("the flush interval must be positive");
+      }
+      this.flushNanos = flushNanos;
+      return this;
+    }
+
+    Builder concurrencyLimit(final int initialLimit, final int maxLimit) {
+      if (initialLimit <= 0 || maxLimit < initialLimit) {
+        throw new IllegalArgumentException(
+            "the initial limit must be positive and not exceed the maximum limit");
+      }
+      this.initialConcurrencyLimit = initialLimit;
+      this.maxConcurrencyLimit = maxLimit;
+      return this;
+    }
+
+    Builder hedging(final double quantile, final double maxHedgeRatio,
+        final ExecutorService executor) {
+      if (quantile <= 0 || quantile >= 1) {
+        throw new IllegalArgumentException("the quantile must be between 0 and 1");
+      }
+      if (maxHedgeRatio <= 0 || maxHedgeRatio > 1) {
+        throw new IllegalArgumentException("the ratio of hedges must be positive and at most 1");
+      }
+      this.hedgeQuantile = quantile;
+      this.maxHedgeRatio = maxHedgeRatio;
+      this.hedgeExecutor = executor;
+      return this;
+    }
+
+    Builder coalescing(final String... headers) {
+      for (final String header : headers) {
+        if (header == null) {
+          throw new IllegalArgumentException("the names of the headers must not be null");
+        }
+      }
+      this.coalescingHeaders = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(headers)));
+      return this;
+    }
+
+    Builder responseCaching() {
+      this.responseCaching = true;
+      return this;
+    }
+
+    Builder loadBalancing() {
+      this.loadBalancing = true;
+      return this;
+    }
+
+    Builder lifecycle() {
+      this.lifecycle = true;
+      return this;
+    }
+
+    Builder evictIdle(final long idleNanos) {
+      if (idleNanos <= 0) {
+        throw new IllegalArgumentException("the idle window must be positive");
+      }
+      this.lifecycle = true;
+      this.idleNanos = idleNanos;
+      return this;
+    }
+
+    MetricsConfig build() {
+      return new MetricsConfig(this);
+    }
+  }
+}
@@ -0,0 +1,255 @@
+package com.github.mwiede.metrics.feign;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+
+import feign.Target;
+
+/**
+ * Removes the metrics of Feign clients from the registry once they are no longer used.
+ * <p>
+ * Each client created by {@link FeignMetricsInvocationHandlerFactoryDecorator} is tracked by a weak
+ * reference to its {@link InvocationHandler}, which is only reachable through the proxy of the
+ * client. The lifecycle only keeps the metrics of its methods, not their method handlers, which may
+ * be bound to the proxy, as those of default methods are. The metrics of a client are released when the proxy is garbage collected or when the
+ * client is released explicitly. If an idle window is set, the metrics of a single method are also
+ * released once it has not been invoked for that window, and registered again on its next
+ * invocation.
+ * <p>
+ * Clients of the same interface and dimension share their metrics, so the names are reference
+ * counted and a metric is only removed from the registry with its last reference.
+ */
+class MetricsLifecycle {
+
+  private static final long CHECK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+  private static final long MIN_CHECK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  private final long idleNanos;
+  private final ReferenceQueue<InvocationHandler> collected = new ReferenceQueue<>();
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+
+  /**
+   * The clients which are not released yet. It keeps the weak references themselves reachable, so
+   * they are enqueued once the proxy is collected. Guarded by this.
+   */
+  private final Set<Client> clients = new HashSet<>();
+  /**
+   * The number of acquired metrics by their names. Guarded by this.
+   */
+  private final Map<String, Integer> references = new HashMap<>();
+
+  /**
+   * @param idleNanos the window after which the metrics of a method which was not invoked are
+   *        released, or 0 to never release them while the client is in use
+   */
+  MetricsLifecycle(final long idleNanos) {
+    this.idleNanos = idleNanos;
+  }
+
+  /**
+   * Starts tracking a client, once its invocation handler is created.
+   */
+  void track(final InvocationHandler handler, final Registration registration) {
+    synchronized (this) {
+      clients.add(new Client(handler, registration, collected));
+    }
+    if (scheduled.compareAndSet(false, true)) {
+      final long interval = idleNanos > 0
+          ? Math.max(MIN_CHECK_INTERVAL_NANOS, Math.min(CHECK_INTERVAL_NANOS, idleNanos / 2))
+          : CHECK_INTERVAL_NANOS;
+      BackgroundTask.schedule(this, lifecycle -> lifecycle.cleanUp(System.nanoTime()), interval);
+    }
+  }
+
+  /**
+   * Releases the metrics of the client with the given invocation handler.
+   *
+   * @return {@code false} if the client is unknown or was already released
+   */
+  synchronized boolean release(final InvocationHandler handler) {
+    for (final Iterator<Client> iterator = clients.iterator(); iterator.hasNext();) {
+      final Client client = iterator.next();
+      if (client.get() == handler) {
+        iterator.remove();
+        client.clear();
+        release(client.registration);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Releases the metrics of collected clients and, if an idle window is set, of methods which were
+   * not invoked within the window before the given time.
+   */
+  synchronized void cleanUp(final long nowNanos) {
+    Reference<? extends InvocationHandler> reference;
+    while ((reference = collected.poll()) != null) {
+      if (clients.remove(reference)) {
+        release(((Client) reference).registration);
+      }
+    }
+
+    if (idleNanos > 0) {
+      for (final Client client : clients) {
+        for (final MethodMetrics metrics : client.registration.methods.values()) {
+          if (metrics.evicted) {
+            continue;
+          }
+          if (metrics.touched) {
+            metrics.touched = false;
+            metrics.lastActive = nowNanos;
+          } else if (nowNanos - metrics.lastActive >= idleNanos) {
+            evict(client.registration, metrics);
+          }
+        }
+      }
+    }
+  }
+
+  private void release(final Registration registration) {
+    registration.released = true;
+    if (registration.retryBudgets != null) {
+      registration.retryBudgets.release(registration.target, registration.registry);
+    }
+    for (final MethodMetrics metrics : registration.methods.values()) {
+      if (!metrics.evicted) {
+        evict(registration, metrics);
+      }
+    }
+  }
+
+  private void evict(final Registration registration, final MethodMetrics metrics) {
+    metrics.evicted = true;
+    if (metrics.buffer != null) {
+      metrics.buffer.release();
+    }
+    if (registration.index != null) {
+      registration.index.remove(registration.target, metrics.method, metrics);
+    }
+    final Map<String, Metric> registered = registration.registry.getMetrics();
+    for (final Map.Entry<String, Metric> entry : metrics.registered.entrySet()) {
+      final String name = entry.getKey();
+      final int remaining = references.merge(name, -1, Integer::sum);
+      if (remaining <= 0) {
+        references.remove(name);
+        if (registered.get(name) == entry.getValue()) {
+          registration.registry.remove(name);
+        }
+      }
+    }
+    if (metrics.responseMeters != null && !references
+        .containsKey(MetricRegistry.name(metrics.responseMeters.metricName, "1xx-responses"))) {
+      metrics.responseMeters.removeStatusMeters();
+    }
+    if (metrics.exceptionMeter != null
+        && !references.containsKey(metrics.exceptionMeter.metricName)) {
+      metrics.exceptionMeter.removeRootCauseMeters();
+    }
+  }
+
+  private MethodMetrics acquire(final Registration registration, final Method method) {
+    final MethodMetrics metrics = registration.registrar.apply(method);
+    for (final String name : metrics.registered.keySet()) {
+      references.merge(name, 1, Integer::sum);
+    }
+    metrics.lastActive = System.nanoTime();
+    registration.methods.put(method, metrics);
+    return metrics;
+  }
+
+  /**
+   * The metrics of the methods of a single client.
+   */
+  class Registration {
+    private final Target<?> target;
+    private final MetricRegistry registry;
+    private final MethodMetricsIndex index;
+    private final RetryBudgets retryBudgets;
+    private final Function<Method, MethodMetrics> registrar;
+    /**
+     * The current metrics of the methods which were registered. Guarded by the lifecycle.
+     */
+    private final Map<Method, MethodMetrics> methods = new HashMap<>();
+    /**
+     * Only set while holding the lock of the lifecycle.
+     */
+    private volatile boolean released;
+
+    /**
+     * @param retryBudgets the budgets to release the target from, or {@code null}
+     * @param registrar registers the metrics of a method
+     */
+    Registration(final Target<?> target, final MetricRegistry registry,
+        final MethodMetricsIndex index, final RetryBudgets retryBudgets,
+        final Function<Method, MethodMetrics> registrar) {
+      this.target = target;
+      this.registry = registry;
+      this.index = index;
+      this.retryBudgets = retryBudgets;
+      this.registrar = registrar;
+    }
+
+    /**
+     * Registers the metrics of a method of this client.
+     */
+    MethodMetrics acquire(final Method method) {
+      synchronized (MetricsLifecycle.this) {
+        return MetricsLifecycle.this.acquire(this, method);
+      }
+    }
+
+    /**
+     * Registers the metrics of an evicted or lazily registered method. The metrics of a released
+     * client are not registered again, so invocations of a client used after it was released are not
+     * published.
+     *
+     * @return the current metrics of the method
+     */
+    MethodMetrics revive(final Method method) {
+      if (released) {
+        // nothing is published for a released client
+        return new MethodMetrics.Builder(method).build();
+      }
+      synchronized (MetricsLifecycle.this) {
+        if (released) {
+          return new MethodMetrics.Builder(method).build();
+        }
+        final MethodMetrics current = methods.get(method);
+        if (current != null && !current.evicted) {
+          return current;
+        }
+        final MethodMetrics metrics = MetricsLifecycle.this.acquire(this, method);
+        if (index != null) {
+          index.register(target, metrics.method, metrics);
+        }
+        return metrics;
+      }
+    }
+  }
+
+  private static class Client extends WeakReference<InvocationHandler> {
+    private final Registration registration;
+
+    Client(final InvocationHandler handler, final Registration registration,
+        final ReferenceQueue<InvocationHandler> queue) {
+      super(handler, queue);
+      this.registration = registration;
+    }
+  }
+}
@@ -0,0 +1,34 @@
+package com.github.mwiede.metrics.feign;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+
+/**
+ * The timers of the phases of an invocation: encoding the request body, the transport until the
+ * response headers are received (the time to first byte), reading the response body until it is
+ * consumed or closed, decoding the response body and sleeping before a retry. The decorators of
+ * each phase resolve them from the {@link MethodMetrics} of the invocation, so they only record
+ * durations and do not allocate.
+ */
+class PhaseTimers {
+  public final Timer encode;
+  public final Timer transport;
+  public final Timer bodyRead;
+  public final Timer decode;
+  public final Timer retrySleep;
+  /**
+   * Meter of response bodies which were closed before they were read to their end, which may
+   * prevent the connection from being reused.
+   */
+  public final Meter unconsumedBodies;
+
+  PhaseTimers(final Timer encode, final Timer transport, final Timer bodyRead,
+      final Timer decode, final Timer retrySleep, final Meter unconsumedBodies) {
+    this.encode = encode;
+    this.transport = transport;
+    this.bodyRead = bodyRead;
+    this.decode = decode;
+    this.retrySleep = retrySleep;
+    this.unconsumedBodies = unconsumedBodies;
+  }
+}
@@ -0,0 +1,54 @@
+package com.github.mwiede.metrics.feign;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import feign.Request;
+
+/**
+ * The method, url and values of selected headers of a request, which identify the responses that
+ * can be shared between requests.
+ */
+final class RequestKey {
+  private final Request.HttpMethod method;
+  private final String url;
+  private final List<Collection<String>> headers;
+  private final int hash;
+
+  /**
+   * @param request the request
+   * @param headerNames the names of the headers whose values must be equal for requests to be equal
+   */
+  RequestKey(final Request request, final List<String> headerNames) {
+    this.method = request.httpMethod();
+    this.url = request.url();
+    if (headerNames.isEmpty()) {
+      this.headers = Collections.emptyList();
+    } else {
+      final Map<String, Collection<String>> requestHeaders = request.headers();
+      this.headers = new ArrayList<>(headerNames.size());
+      for (final String name : headerNames) {
+        this.headers.add(requestHeaders.get(name));
+      }
+    }
+    this.hash = (method.hashCode() * 31 + url.hashCode()) * 31 + headers.hashCode();
+  }
+
+  @Override
+  public boolean equals(final Object obj) {
+    if (!(obj instanceof RequestKey)) {
+      return false;
+    }
+    final RequestKey other = (RequestKey) obj;
+    return hash == other.hash && method == other.method && url.equals(other.url)
+        && headers.equals(other.headers);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+}
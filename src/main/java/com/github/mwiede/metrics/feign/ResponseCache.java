@@ -0,0 +1,133 @@
+package com.github.mwiede.metrics.feign;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+
+import feign.Request;
+import feign.Response;
+
+/**
+ * The cached responses of a method annotated with {@link ResponseCached}, by method, url and the
+ * values of the headers named by the annotation, with the least recently used entries evicted
+ * beyond the maximum number. As a gauge, it is the number of bytes of the cached bodies.
+ */
+class ResponseCache implements Gauge<Long> {
+
+  final Meter hits;
+  final Meter misses;
+  final Meter revalidations;
+  final Meter evictions;
+  private final long ttlNanos;
+  private final int maxEntries;
+  private final List<String> headerNames;
+  private final Clock clock;
+
+  /**
+   * Guarded by this.
+   */
+  private final Map<RequestKey, Entry> entries;
+  private long bytes;
+
+  ResponseCache(final ResponseCached cached, final Meter hits, final Meter misses,
+      final Meter revalidations, final Meter evictions) {
+    this(cached, hits, misses, revalidations, evictions, Clock.defaultClock());
+  }
+
+  ResponseCache(final ResponseCached cached, final Meter hits, final Meter misses,
+      final Meter revalidations, final Meter evictions, final Clock clock) {
+    this.clock = clock;
+    this.ttlNanos = cached.ttlUnit().toNanos(cached.ttl());
+    this.maxEntries = cached.maxEntries();
+    this.headerNames = Collections.unmodifiableList(Arrays.asList(cached.headers()));
+    this.hits = hits;
+    this.misses = misses;
+    this.revalidations = revalidations;
+    this.evictions = evictions;
+    this.entries = new LinkedHashMap<RequestKey, Entry>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<RequestKey, Entry> eldest) {
+        if (size() <= maxEntries) {
+          return false;
+        }
+        bytes -= eldest.getValue().size;
+        ResponseCache.this.evictions.mark();
+        return true;
+      }
+    };
+  }
+
+  /**
+   * @return the key of the response to the given request
+   */
+  RequestKey key(final Request request) {
+    return new RequestKey(request, headerNames);
+  }
+
+  /**
+   * @return the cached entry, fresh or expired, or {@code null}
+   */
+  synchronized Entry get(final RequestKey key) {
+    return entries.get(key);
+  }
+
+  /**
+   * Caches a response whose body was read into memory.
+   */
+  void put(final RequestKey key, final Response buffered, final byte[] body, final String etag) {
+    final Entry entry =
+        new Entry(buffered, etag, body.length, clock.getTick() + ttlNanos);
+    synchronized (this) {
+      bytes += entry.size;
+      final Entry replaced = entries.put(key, entry);
+      if (replaced != null) {
+        bytes -= replaced.size;
+      }
+    }
+  }
+
+  /**
+   * Makes an entry fresh again, once the server confirmed it is unchanged.
+   */
+  void refresh(final Entry entry) {
+    entry.expiresAt = clock.getTick() + ttlNanos;
+  }
+
+  /**
+   * @return whether the entry can be used without revalidation
+   */
+  boolean isFresh(final Entry entry) {
+    return clock.getTick() - entry.expiresAt < 0;
+  }
+
+  @Override
+  public synchronized Long getValue() {
+    return bytes;
+  }
+
+  static final class Entry {
+    final Response response;
+    /**
+     * The {@code ETag} of the response, or {@code null}.
+     */
+    final String etag;
+    final int size;
+    private volatile long expiresAt;
+
+    private Entry(final Response response, final String etag, final int size,
+        final long expiresAt) {
+      this.response = response;
+      this.etag = etag;
+      this.size = size;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
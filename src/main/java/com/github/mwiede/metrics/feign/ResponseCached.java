@@ -0,0 +1,40 @@
+package com.github.mwiede.metrics.feign;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the successful responses to GET requests of a method for a time to live, if enabled by
+ * {@link AnnotionMetricsCapability.Builder#cacheResponses()}. Responses are cached by url and the
+ * values of the given headers. Once expired, a response with an {@code ETag} is revalidated with
+ * {@code If-None-Match} and kept if the server responds {@code 304 Not Modified}. The least
+ * recently used responses are evicted beyond the maximum number of entries.
+ * <p>
+ * Like {@link TimerReservoir}, it can be put on the interface or on single methods, where the
+ * annotation of a method overrides the one of the interface.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface ResponseCached {
+
+  /**
+   * @return the time a response is used without revalidation
+   */
+  long ttl();
+
+  TimeUnit ttlUnit() default TimeUnit.SECONDS;
+
+  /**
+   * @return the maximum number of cached responses of the method
+   */
+  int maxEntries() default 1000;
+
+  /**
+   * @return the names of the request headers which select the response, like {@code Authorization}
+   *         or {@code Accept}, whose values must be equal for a cached response to be used
+   */
+  String[] headers() default {};
+}
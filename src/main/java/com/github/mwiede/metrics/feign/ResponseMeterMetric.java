@@ -0,0 +1,85 @@
+package com.github.mwiede.metrics.feign;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.github.mwiede.metrics.feign.FeignMetricsInvocationHandlerFactoryDecorator.chooseDimensionedName;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.annotation.ResponseMetered;
+
+/**
+ * A private class to maintain the metrics for a method annotated with the {@link ResponseMetered}
+ * annotation, which needs to maintain meters for different response codes
+ */
+class ResponseMeterMetric {
+  private static final int MIN_STATUS = 100;
+  private static final int MAX_STATUS = 599;
+  private static final int OTHER_STATUS = MAX_STATUS - MIN_STATUS + 1;
+
+  public final Meter[] meters;
+
+  /**
+   * The meters of exact status codes, indexed by status minus 100 with one last slot for all other
+   * statuses. A slot is filled on the first response with that status. {@code null} unless
+   * detailed response meters are enabled.
+   */
+  private final AtomicReferenceArray<Meter> statusMeters;
+  private final MetricRegistry registry;
+  final String metricName;
+
+  public ResponseMeterMetric(final MetricRegistry registry, final Method method,
+      final String dimension, final ResponseMetered responseMetered, final boolean detailed,
+      final Map<String, Metric> registered) {
+    this.registry = registry;
+    this.metricName = chooseDimensionedName(dimension, responseMetered.name(),
+        responseMetered.absolute(), method);
+    this.meters = new Meter[5];
+    for (int i = 0; i < meters.length; i++) {
+      final String name = name(metricName, (i + 1) + "xx-responses");
+      meters[i] = registry.meter(name);
+      registered.put(name, meters[i]);
+    }
+    this.statusMeters = detailed ? new AtomicReferenceArray<>(OTHER_STATUS + 1) : null;
+  }
+
+  void mark(final int status) {
+    final int responseStatus = status / 100;
+    if (responseStatus >= 1 && responseStatus <= 5) {
+      meters[responseStatus - 1].mark();
+    }
+    if (statusMeters != null) {
+      statusMeter(status).mark();
+    }
+  }
+
+  private Meter statusMeter(final int status) {
+    final int index =
+        status >= MIN_STATUS && status <= MAX_STATUS ? status - MIN_STATUS : OTHER_STATUS;
+    Meter meter = statusMeters.get(index);
+    if (meter == null) {
+      // the registry returns the same meter on concurrent registrations
+      meter = registry.meter(name(metricName,
+          index == OTHER_STATUS ? "other-responses" : status + "-responses"));
+      statusMeters.set(index, meter);
+    }
+    return meter;
+  }
+
+  /**
+   * Removes the lazily registered meters of exact status codes from the registry. They are shared
+   * by all metrics of the same name, so this must only be called once the last of them is
+   * released.
+   */
+  void removeStatusMeters() {
+    if (statusMeters != null) {
+      final String prefix = metricName + ".";
+      registry.removeMatching((name, metric) -> name.startsWith(prefix)
+          && name.endsWith("-responses") && name.indexOf('.', prefix.length()) < 0);
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package com.github.mwiede.metrics.feign;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.codahale.metrics.Gauge;
+
+/**
+ * A token bucket limiting the retries of a target to a ratio of its successful requests: each
+ * successful request deposits the ratio of a retry, and each retry withdraws one. A minimum of
+ * retries per second is refilled over time, so targets with little traffic can still retry. As a
+ * gauge, it is the number of retries currently allowed.
+ */
+class RetryBudget implements Gauge<Double> {
+
+  /**
+   * The budget is kept in thousandths of a retry.
+   */
+  private static final long ONE_RETRY = 1000;
+  /**
+   * The capacity is this many seconds of the minimum retries, but at least as many retries.
+   */
+  private static final long CAPACITY_SECONDS = 10;
+
+  private final long depositPerRequest;
+  private final long refillPerSecond;
+  private final long capacity;
+  private final AtomicLong balance;
+  /**
+   * The time up to which the minimum retries were refilled, guarded by this.
+   */
+  private long refilled = System.nanoTime();
+
+  RetryBudget(final double ratio, final int minRetriesPerSecond) {
+    this.depositPerRequest = Math.round(ratio * ONE_RETRY);
+    this.refillPerSecond = minRetriesPerSecond * ONE_RETRY;
+    this.capacity = Math.max(CAPACITY_SECONDS, CAPACITY_SECONDS * minRetriesPerSecond) * ONE_RETRY;
+    this.balance = new AtomicLong(capacity);
+  }
+
+  /**
+   * Adds the share of a successful request.
+   */
+  void deposit() {
+    add(depositPerRequest);
+  }
+
+  /**
+   * Returns a retry which was allowed but not made.
+   */
+  void refund() {
+    add(ONE_RETRY);
+  }
+
+  /**
+   * @return {@code false} if the budget does not allow another retry
+   */
+  boolean withdraw() {
+    refill();
+    long current;
+    do {
+      current = balance.get();
+      if (current < ONE_RETRY) {
+        return false;
+      }
+    } while (!balance.compareAndSet(current, current - ONE_RETRY));
+    return true;
+  }
+
+  @Override
+  public Double getValue() {
+    refill();
+    return (double) balance.get() / ONE_RETRY;
+  }
+
+  private void add(final long amount) {
+    long current;
+    do {
+      current = balance.get();
+      if (current >= capacity) {
+        return;
+      }
+    } while (!balance.compareAndSet(current, Math.min(capacity, current + amount)));
+  }
+
+  private synchronized void refill() {
+    if (refillPerSecond == 0) {
+      return;
+    }
+    final long now = System.nanoTime();
+    // the bucket is full after this time anyway
+    refilled = Math.max(refilled, now - TimeUnit.SECONDS.toNanos(CAPACITY_SECONDS));
+    final long amount = (now - refilled) * refillPerSecond / TimeUnit.SECONDS.toNanos(1);
+    if (amount > 0) {
+      // the remainder below a thousandth is refilled the next time
+      refilled += amount * TimeUnit.SECONDS.toNanos(1) / refillPerSecond;
+      add(amount);
+    }
+  }
+}
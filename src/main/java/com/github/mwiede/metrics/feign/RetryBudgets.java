@@ -0,0 +1,111 @@
+package com.github.mwiede.metrics.feign;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+import feign.Request;
+import feign.RequestTemplate;
+import feign.Target;
+
+/**
+ * The {@link RetryBudget} of each target, shared by all clients of equal targets. Budgets are
+ * registered when a client of the target is created, looked up from the target of a request, and
+ * removed with the last client of the target if the lifecycle of metrics is managed.
+ * <p>
+ * The gauges are named by the dimension of their target, so their number is capped like that of
+ * the other metrics, and targets beyond the cap share the budget of the overflow dimension.
+ */
+class RetryBudgets {
+
+  /**
+   * The maximum number of target names if the metrics are not separated by target.
+   */
+  static final int MAX_TARGETS = 100;
+
+  private final double ratio;
+  private final int minRetriesPerSecond;
+  private final TargetDimensions dimensions;
+  private final ConcurrentMap<Target<?>, Registered> budgets = new ConcurrentHashMap<>();
+  /**
+   * The number of targets sharing each gauge. Guarded by this.
+   */
+  private final Map<String, Integer> references = new HashMap<>();
+
+  /**
+   * @param dimensions the dimensions of the targets, or {@code null} to name them by target name
+   */
+  RetryBudgets(final double ratio, final int minRetriesPerSecond,
+      final TargetDimensions dimensions) {
+    this.ratio = ratio;
+    this.minRetriesPerSecond = minRetriesPerSecond;
+    this.dimensions = dimensions != null ? dimensions
+        : new TargetDimensions(TargetDimensions.Type.NAME, MAX_TARGETS);
+  }
+
+  /**
+   * Registers the budget of the target as gauge {@code <type>.<dimension>.retryBudget}, unless it
+   * exists, and counts the client of the target.
+   */
+  synchronized void register(final Target<?> target, final MetricRegistry registry) {
+    Registered registered = budgets.get(target);
+    if (registered == null) {
+      final String name = name(target.type().getName(), dimensions.of(target), "retryBudget");
+      final Gauge<?> gauge =
+          registry.gauge(name, () -> new RetryBudget(ratio, minRetriesPerSecond));
+      // another gauge registered under the same name is left alone
+      registered = new Registered(name, gauge instanceof RetryBudget ? (RetryBudget) gauge
+          : new RetryBudget(ratio, minRetriesPerSecond));
+      references.merge(name, 1, Integer::sum);
+      budgets.put(target, registered);
+    }
+    registered.clients++;
+  }
+
+  /**
+   * Releases a client of the target, removing its budget and gauge with the last one.
+   */
+  synchronized void release(final Target<?> target, final MetricRegistry registry) {
+    final Registered registered = budgets.get(target);
+    if (registered == null || --registered.clients > 0) {
+      return;
+    }
+    budgets.remove(target);
+    if (references.merge(registered.name, -1, Integer::sum) <= 0) {
+      references.remove(registered.name);
+      if (registry.getMetrics().get(registered.name) == registered.budget) {
+        registry.remove(registered.name);
+      }
+    }
+  }
+
+  /**
+   * @return the budget of the target of the request, or {@code null} if it is unknown
+   */
+  RetryBudget of(final Request request) {
+    final RequestTemplate template = request != null ? request.requestTemplate() : null;
+    final Target<?> target = template != null ? template.feignTarget() : null;
+    final Registered registered = target != null ? budgets.get(target) : null;
+    return registered != null ? registered.budget : null;
+  }
+
+  private static final class Registered {
+    private final String name;
+    private final RetryBudget budget;
+    /**
+     * Guarded by the budgets.
+     */
+    private int clients;
+
+    private Registered(final String name, final RetryBudget budget) {
+      this.name = name;
+      this.budget = budget;
+    }
+  }
+}
@@ -0,0 +1,21 @@
+package com.github.mwiede.metrics.feign;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Timer;
+
+/**
+ * The metrics of the retries of a synchronous invocation, which {@link InvocationRetries}
+ * publishes once the invocation ends: the number of attempts, the duration of each attempt and the
+ * total backoff of invocations which were retried.
+ */
+class RetryMetrics {
+  public final Histogram attempts;
+  public final Timer attempt;
+  public final Timer backoff;
+
+  RetryMetrics(final Histogram attempts, final Timer attempt, final Timer backoff) {
+    this.attempts = attempts;
+    this.attempt = attempt;
+    this.backoff = backoff;
+  }
+}
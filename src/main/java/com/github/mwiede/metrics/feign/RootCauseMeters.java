@@ -0,0 +1,49 @@
+package com.github.mwiede.metrics.feign;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Meters of the classes of root causes of exceptions, named like
+ * {@code exceptions.java_io_IOException}. The meters are registered for the first exception with a
+ * root cause of that class. Once a maximum number of classes is reached, all other classes share
+ * the meter {@code exceptions.other}.
+ */
+class RootCauseMeters {
+  static final String OTHER = "other";
+
+  private final MetricRegistry registry;
+  private final String metricName;
+  private final int maxClasses;
+  private final AtomicInteger classes = new AtomicInteger();
+
+  private final ClassValue<Meter> meters = new ClassValue<Meter>() {
+    @Override
+    protected Meter computeValue(final Class<?> type) {
+      if (classes.incrementAndGet() > maxClasses) {
+        return registry.meter(name(metricName, OTHER));
+      }
+      return registry.meter(name(metricName, type.getName().replace('.', '_')));
+    }
+  };
+
+  RootCauseMeters(final MetricRegistry registry, final String metricName, final int maxClasses) {
+    this.registry = registry;
+    this.metricName = metricName;
+    this.maxClasses = maxClasses;
+  }
+
+  void mark(final Class<?> rootCause) {
+    meters.get(rootCause).mark();
+  }
+
+  void remove() {
+    final String prefix = metricName + ".";
+    registry.removeMatching((name, metric) -> metric instanceof Meter
+        && name.startsWith(prefix) && name.indexOf('.', prefix.length()) < 0);
+  }
+}
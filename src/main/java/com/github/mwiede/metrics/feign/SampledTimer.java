@@ -0,0 +1,120 @@
+package com.github.mwiede.metrics.feign;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.SlidingWindowReservoir;
+import com.codahale.metrics.Timer;
+
+/**
+ * A {@link Timer} of a {@link com.codahale.metrics.annotation.Timed} method, which only times one
+ * of every {@code n} invocations in its delegate, chosen by a threadlocal random number. Each sampled
+ * invocation counts {@code n} times, so the count and the rates estimate all invocations while the
+ * snapshot only contains the sampled durations.
+ * <p>
+ * {@code n} is either fixed, or adapted every second so that at most the given number of
+ * invocations per second is sampled.
+ */
+class SampledTimer extends Timer {
+
+  private static final long ADAPT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final Timer delegate;
+  private final Meter invocations;
+  private final int maxSamplesPerSecond;
+  private final LongAdder adaptiveCalls;
+  private final AtomicLong adaptiveWindowStart;
+  private final Clock clock;
+  private volatile int rate;
+
+  /**
+   * @param rate the fixed rate {@code n}, if {@code maxSamplesPerSecond} is 0
+   * @param maxSamplesPerSecond the maximum number of samples per second to adapt the rate to, or 0
+   *        for a fixed rate
+   */
+  SampledTimer(final Timer delegate, final int rate, final int maxSamplesPerSecond) {
+    this(delegate, rate, maxSamplesPerSecond, Clock.defaultClock());
+  }
+
+  /**
+   * @param clock the clock of the windows in which the rate is adapted
+   */
+  SampledTimer(final Timer delegate, final int rate, final int maxSamplesPerSecond,
+      final Clock clock) {
+    this(delegate, new Meter(clock), rate, maxSamplesPerSecond, clock);
+  }
+
+  private SampledTimer(final Timer delegate, final Meter invocations, final int rate,
+      final int maxSamplesPerSecond, final Clock clock) {
+    // the histogram is unused, the snapshot is taken from the delegate
+    super(invocations, new Histogram(new SlidingWindowReservoir(1)), clock);
+    this.delegate = delegate;
+    this.clock = clock;
+    this.invocations = invocations;
+    this.maxSamplesPerSecond = maxSamplesPerSecond;
+    this.rate = maxSamplesPerSecond > 0 ? 1 : rate;
+    this.adaptiveCalls = maxSamplesPerSecond > 0 ? new LongAdder() : null;
+    this.adaptiveWindowStart = maxSamplesPerSecond > 0 ? new AtomicLong(clock.getTick()) : null;
+  }
+
+  /**
+   * Decides whether the current invocation is timed, and counts it if so.
+   *
+   * @return {@code true} if the invocation is to be timed
+   */
+  boolean sample() {
+    if (adaptiveCalls != null) {
+      adaptiveCalls.increment();
+      // on every invocation, so that the rate also falls when few invocations are sampled
+      adapt();
+    }
+    final int n = rate;
+    if (n > 1 && ThreadLocalRandom.current().nextInt(n) != 0) {
+      return false;
+    }
+    invocations.mark(n);
+    return true;
+  }
+
+  private void adapt() {
+    final long now = clock.getTick();
+    final long start = adaptiveWindowStart.get();
+    if (now - start >= ADAPT_INTERVAL_NANOS && adaptiveWindowStart.compareAndSet(start, now)) {
+      final double callsPerSecond =
+          adaptiveCalls.sumThenReset() * (double) ADAPT_INTERVAL_NANOS / (now - start);
+      rate = (int) Math.max(1,
+          Math.min(Integer.MAX_VALUE, Math.ceil(callsPerSecond / maxSamplesPerSecond)));
+    }
+  }
+
+  int rate() {
+    return rate;
+  }
+
+  @Override
+  public void update(final long duration, final TimeUnit unit) {
+    delegate.update(duration, unit);
+  }
+
+  @Override
+  public void update(final Duration duration) {
+    delegate.update(duration);
+  }
+
+  @Override
+  public long getCount() {
+    return invocations.getCount();
+  }
+
+  @Override
+  public Snapshot getSnapshot() {
+    return delegate.getSnapshot();
+  }
+}
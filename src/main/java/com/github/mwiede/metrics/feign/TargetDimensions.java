@@ -0,0 +1,64 @@
+package com.github.mwiede.metrics.feign;
+
+import java.net.URI;
+import java.util.HashSet;
+import java.util.Set;
+
+import feign.Target;
+
+/**
+ * Resolves the dimension by which the metrics of a {@link Target} are separated, either its name or
+ * the host of its url. The number of distinct dimensions is capped, all further targets share the
+ * {@value #OVERFLOW} dimension, so that the registry does not grow without bounds.
+ */
+class TargetDimensions {
+
+  static final String OVERFLOW = "other";
+
+  enum Type {
+    NAME, HOST
+  }
+
+  private final Type type;
+  private final int maxDimensions;
+  private final Set<String> dimensions = new HashSet<>();
+
+  TargetDimensions(final Type type, final int maxDimensions) {
+    if (maxDimensions < 1) {
+      throw new IllegalArgumentException("maxDimensions must be positive: " + maxDimensions);
+    }
+    this.type = type;
+    this.maxDimensions = maxDimensions;
+  }
+
+  /**
+   * @return the dimension of the target, which does not contain any dots, so that it forms a single
+   *         segment of a metric name.
+   */
+  synchronized String of(final Target<?> target) {
+    final String dimension = sanitize(type == Type.HOST ? host(target) : target.name());
+    if (dimensions.contains(dimension)) {
+      return dimension;
+    }
+    if (dimensions.size() < maxDimensions) {
+      dimensions.add(dimension);
+      return dimension;
+    }
+    return OVERFLOW;
+  }
+
+  private static String host(final Target<?> target) {
+    try {
+      final String host = URI.create(target.url()).getHost();
+      return host != null ? host : target.name();
+    } catch (final RuntimeException e) {
+      // e.g. Target.EmptyTarget, which has no url
+      return target.name();
+    }
+  }
+
+  static String sanitize(final String dimension) {
+    return dimension == null || dimension.isEmpty() ? OVERFLOW
+        : dimension.replace('.', '_').replace(':', '_');
+  }
+}
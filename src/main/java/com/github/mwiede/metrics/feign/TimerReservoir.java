@@ -0,0 +1,46 @@
+package com.github.mwiede.metrics.feign;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chooses the reservoir of the timer of a {@link com.codahale.metrics.annotation.Timed} method,
+ * overriding the timer supplier configured for the whole client. It can be put on the interface
+ * or on single methods, where the annotation of a method overrides the one of the interface, unlike
+ * the metric annotations, whose annotation of the interface takes precedence.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface TimerReservoir {
+
+  enum Type {
+    /**
+     * The default reservoir of dropwizard timers,
+     * {@link com.codahale.metrics.ExponentiallyDecayingReservoir}.
+     */
+    EXPONENTIALLY_DECAYING,
+    /**
+     * A {@link com.codahale.metrics.SlidingTimeWindowArrayReservoir} of
+     * {@link TimerReservoir#window()}.
+     */
+    SLIDING_TIME_WINDOW,
+    /**
+     * A {@link HdrHistogramReservoir} of {@link TimerReservoir#window()}, which requires
+     * HdrHistogram on the classpath.
+     */
+    HDR_HISTOGRAM
+  }
+
+  Type value();
+
+  /**
+   * @return the size of the window of {@link Type#SLIDING_TIME_WINDOW} and
+   *         {@link Type#HDR_HISTOGRAM}
+   */
+  long window() default 1;
+
+  TimeUnit windowUnit() default TimeUnit.MINUTES;
+}
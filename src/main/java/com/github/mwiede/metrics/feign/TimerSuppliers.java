@@ -0,0 +1,50 @@
+package com.github.mwiede.metrics.feign;
+
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.MetricRegistry.MetricSupplier;
+import com.codahale.metrics.SlidingTimeWindowArrayReservoir;
+import com.codahale.metrics.Timer;
+
+/**
+ * Built-in timer suppliers to be passed to {@link AnnotionMetricsCapability.Builder#timerSupplier}
+ * or {@link FeignWithMetrics#builder(com.codahale.metrics.MetricRegistry, MetricSupplier)}.
+ */
+public final class TimerSuppliers {
+
+  private TimerSuppliers() {}
+
+  /**
+   * @return timers with a {@link HdrHistogramReservoir} of the last minute, which records without
+   *         locks and keeps accurate tail percentiles. Requires HdrHistogram on the classpath.
+   */
+  public static MetricSupplier<Timer> hdrHistogram() {
+    return () -> new Timer(new HdrHistogramReservoir());
+  }
+
+  /**
+   * @return timers with a {@link HdrHistogramReservoir} of the given window. Requires HdrHistogram
+   *         on the classpath.
+   */
+  public static MetricSupplier<Timer> hdrHistogram(final long window, final TimeUnit windowUnit) {
+    return () -> new Timer(new HdrHistogramReservoir(3, window, windowUnit));
+  }
+
+  /**
+   * @return timers with a {@link SlidingTimeWindowArrayReservoir} of the given window
+   */
+  public static MetricSupplier<Timer> slidingTimeWindow(final long window, final TimeUnit windowUnit) {
+    return () -> new Timer(new SlidingTimeWindowArrayReservoir(window, windowUnit));
+  }
+
+  static MetricSupplier<Timer> of(final TimerReservoir reservoir) {
+    switch (reservoir.value()) {
+      case SLIDING_TIME_WINDOW:
+        return slidingTimeWindow(reservoir.window(), reservoir.windowUnit());
+      case HDR_HISTOGRAM:
+        return hdrHistogram(reservoir.window(), reservoir.windowUnit());
+      default:
+        return Timer::new;
+    }
+  }
+}
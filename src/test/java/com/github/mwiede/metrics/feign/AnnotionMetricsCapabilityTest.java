@@ -0,0 +1,398 @@
+package com.github.mwiede.metrics.feign;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.NoopMetricRegistry;
+
+import feign.AsyncClient;
+import feign.AsyncFeign;
+import feign.Client;
+import feign.Feign;
+import feign.Request;
+import feign.Response;
+import feign.Retryer;
+
+public class AnnotionMetricsCapabilityTest {
+
+  MetricRegistry metricRegistry;
+
+  @Before
+  public void init() {
+    metricRegistry = new MetricRegistry();
+  }
+
+  @Test
+  public void methodFromRequest() {
+    final Client client = (request, options) -> {
+      assertNull(FeignMetricsInvocationHandlerFactoryDecorator.ACTUAL_METHOD.get());
+      assertNull(FeignMetricsInvocationHandlerFactoryDecorator.ACTUAL_METRIC.get());
+      return Response.builder().status(201).request(request).headers(Collections.emptyMap())
+          .build();
+    };
+    final MyClientWithAnnotationOnMethodLevel target =
+        Feign.builder().client(client)
+            .addCapability(AnnotionMetricsCapability.builder(metricRegistry).methodFromRequest().build())
+            .target(MyClientWithAnnotationOnMethodLevel.class, "http://localhost");
+
+    target.myMethod();
+
+    assertEquals(1, metricRegistry.meter(
+        "com.github.mwiede.metrics.feign.MyClientWithAnnotationOnMethodLevel.myMethod.2xx-responses")
+        .getCount());
+    assertEquals(1, metricRegistry.timer(
+        "com.github.mwiede.metrics.feign.MyClientWithAnnotationOnMethodLevel.myMethod.Timed")
+        .getCount());
+  }
+
+  @Test
+  public void retriesWithMethodFromRequest() {
+    final Client client = (request, options) -> {
+      throw new IOException("connection reset");
+    };
+    final MyClientWithoutAnnotation target =
+        Feign.builder().client(client).retryer(new Retryer.Default(1, 1, 3))
+            .addCapability(AnnotionMetricsCapability.builder(metricRegistry).methodFromRequest().build())
+            .target(MyClientWithoutAnnotation.class, "http://localhost");
+
+    try {
+      target.myMethod();
+    } catch (final Exception e) {
+    } finally {
+      assertEquals(2, metricRegistry.meter(
+          "com.github.mwiede.metrics.feign.MyClientWithoutAnnotation.myMethod.reAttempts.Metered")
+          .getCount());
+      assertEquals(1, metricRegistry.meter(
+          "com.github.mwiede.metrics.feign.MyClientWithoutAnnotation.myMethod.retryExhausted.Metered")
+          .getCount());
+    }
+  }
+
+  @Test
+  public void detailedResponseMeters() {
+    final int[] statuses = {429, 404, 429, 600};
+    final int[] call = {0};
+    final Client client = (request, options) -> Response.builder().status(statuses[call[0]++])
+        .request(request).headers(Collections.emptyMap()).build();
+    final MyClientWithAnnotationOnMethodLevel target =
+        Feign.builder().client(client)
+            .addCapability(AnnotionMetricsCapability.builder(metricRegistry).detailedResponseMeters().build())
+            .target(MyClientWithAnnotationOnMethodLevel.class, "http://localhost");
+
+    for (int i = 0; i < statuses.length; i++) {
+      try {
+        target.myMethod();
+      } catch (final Exception e) {
+      }
+    }
+
+    final String prefix = "com.github.mwiede.metrics.feign.MyClientWithAnnotationOnMethodLevel.myMethod";
+    assertEquals(3, metricRegistry.getMeters().get(prefix + ".4xx-responses").getCount());
+    assertEquals(2, metricRegistry.getMeters().get(prefix + ".429-responses").getCount());
+    assertEquals(1, metricRegistry.getMeters().get(prefix + ".404-responses").getCount());
+    assertEquals(1, metricRegistry.getMeters().get(prefix + ".other-responses").getCount());
+    assertNull("meters are created lazily", metricRegistry.getMeters().get(prefix + ".200-responses"));
+  }
+
+  @Test
+  public void dimensionByTargetHost() {
+    final Client client = new StubClient(request -> StubClient.response(request, 200, null));
+    final AnnotionMetricsCapability capability = AnnotionMetricsCapability.builder(metricRegistry)
+        .methodFromRequest().dimensionByTargetHost(2).build();
+
+    for (final String host : new String[] {"shard1", "shard2", "shard2", "shard3", "shard4"}) {
+      Feign.builder().client(client).addCapability(capability)
+          .target(MyClientWithAnnotationOnMethodLevel.class, "http://" + host + ".example.com")
+          .myMethod();
+    }
+
+    final String prefix = "com.github.mwiede.metrics.feign.MyClientWithAnnotationOnMethodLevel.myMethod";
+    assertEquals(1, metricRegistry.timer(prefix + ".shard1_example_com.Timed").getCount());
+    assertEquals(2, metricRegistry.timer(prefix + ".shard2_example_com.Timed").getCount());
+    assertEquals(2, metricRegistry.timer(prefix + ".other.Timed").getCount());
+    assertEquals(2, metricRegistry.meter(prefix + ".shard2_example_com.2xx-responses").getCount());
+    assertEquals(2, metricRegistry.meter(prefix + ".other.2xx-responses").getCount());
+    assertEquals(3, metricRegistry.getTimers().size());
+  }
+
+  @Test
+  public void asyncCallsAreTimedUntilCompletion() {
+    final AtomicReference<Request> sent = new AtomicReference<>();
+    final CompletableFuture<Response> pending = new CompletableFuture<>();
+    final AsyncClient<Object> client = (request, options, context) -> {
+      sent.set(request);
+      return pending;
+    };
+    final MyAsyncClientWithAnnotationOnClassLevel target =
+        AsyncFeign.asyncBuilder().client(client)
+            .addCapability(new AnnotionMetricsCapability(metricRegistry))
+            .target(MyAsyncClientWithAnnotationOnClassLevel.class, "http://localhost");
+
+    final CompletableFuture<Void> result = target.myMethod();
+
+    final String prefix = "com.github.mwiede.metrics.feign.MyAsyncClientWithAnnotationOnClassLevel.myMethod";
+    assertEquals(0, metricRegistry.timer(prefix + ".Timed").getCount());
+    assertEquals(0, metricRegistry.meter(prefix + ".2xx-responses").getCount());
+
+    pending.complete(Response.builder().status(200).request(sent.get())
+        .headers(Collections.emptyMap()).build());
+
+    assertTrue(result.isDone());
+    assertEquals(1, metricRegistry.timer(prefix + ".Timed").getCount());
+    assertEquals(1, metricRegistry.meter(prefix + ".2xx-responses").getCount());
+    assertEquals(0, metricRegistry.meter(prefix + ".exceptions").getCount());
+  }
+
+  @Test
+  public void asyncExceptionsAreMeteredOnCompletion() {
+    final AsyncClient<Object> client = (request, options, context) -> {
+      final CompletableFuture<Response> future = new CompletableFuture<>();
+      future.completeExceptionally(new IOException("connection reset"));
+      return future;
+    };
+    final MyAsyncClientWithAnnotationOnClassLevel target =
+        AsyncFeign.asyncBuilder().client(client)
+            .addCapability(AnnotionMetricsCapability.builder(metricRegistry).methodFromRequest().build())
+            .target(MyAsyncClientWithAnnotationOnClassLevel.class, "http://localhost");
+
+    assertTrue(target.myMethod().isCompletedExceptionally());
+
+    final String prefix = "com.github.mwiede.metrics.feign.MyAsyncClientWithAnnotationOnClassLevel.myMethod";
+    assertEquals(1, metricRegistry.timer(prefix + ".Timed").getCount());
+    assertEquals(1, metricRegistry.meter(prefix + ".exceptions").getCount());
+  }
+
+  @Test
+  public void asyncQueueWaitIsTimed() throws Exception {
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final Client client = new StubClient(request -> StubClient.response(request, 200, null));
+      final MyAsyncClientWithAnnotationOnClassLevel target =
+          AsyncFeign.asyncBuilder()
+              .client(new AsyncClient.Default<>(client, new FeignMetricsExecutorServiceDecorator(executor)))
+              .addCapability(new AnnotionMetricsCapability(metricRegistry))
+              .target(MyAsyncClientWithAnnotationOnClassLevel.class, "http://localhost");
+
+      target.myMethod().get();
+
+      assertEquals(1, metricRegistry.timer(
+          "com.github.mwiede.metrics.feign.MyAsyncClientWithAnnotationOnClassLevel.myMethod.queueWait.Timed")
+          .getCount());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void payloadSizes() {
+    final Client client = (request, options) -> Response.builder().status(200).request(request)
+        .headers(Collections.emptyMap())
+        .body(new ByteArrayInputStream(("echo: " + new String(request.body())).getBytes()), null)
+        .build();
+    final MyClientWithPayload target = Feign.builder().client(client)
+        .addCapability(AnnotionMetricsCapability.builder(metricRegistry).payloadSizes().build())
+        .target(MyClientWithPayload.class, "http://localhost");
+
+    assertEquals("echo: hello", target.echo("hello"));
+
+    final String prefix = "com.github.mwiede.metrics.feign.MyClientWithPayload.echo";
+    assertEquals(5, metricRegistry.histogram(prefix + ".requestSize").getSnapshot().getMax());
+    assertEquals(1, metricRegistry.histogram(prefix + ".responseSize").getCount());
+    assertEquals(11, metricRegistry.histogram(prefix + ".responseSize").getSnapshot().getMax());
+  }
+
+  @Test
+  public void payloadSizeFromLength() {
+    final Client client = (request, options) -> Response.builder().status(200).request(request)
+        .headers(Collections.emptyMap()).body(new byte[42]).build();
+    final MyClientWithPayload target = Feign.builder().client(client)
+        .addCapability(AnnotionMetricsCapability.builder(metricRegistry).payloadSizes().build())
+        .target(MyClientWithPayload.class, "http://localhost");
+
+    target.echo("");
+
+    final String prefix = "com.github.mwiede.metrics.feign.MyClientWithPayload.echo";
+    assertEquals(0, metricRegistry.histogram(prefix + ".requestSize").getSnapshot().getMax());
+    assertEquals(42, metricRegistry.histogram(prefix + ".responseSize").getSnapshot().getMax());
+  }
+
+  @Test
+  public void phaseTimers() {
+    assertPhasesTimed(AnnotionMetricsCapability.builder(metricRegistry).phaseTimers().build());
+  }
+
+  @Test
+  public void phaseTimersWithMethodFromRequest() {
+    assertPhasesTimed(AnnotionMetricsCapability.builder(metricRegistry).methodFromRequest()
+        .phaseTimers().build());
+  }
+
+  private void assertPhasesTimed(final AnnotionMetricsCapability capability) {
+    final int[] call = {0};
+    final Client client = (request, options) -> {
+      if (call[0]++ == 0) {
+        throw new IOException("connection reset");
+      }
+      return Response.builder().status(200).request(request).headers(Collections.emptyMap())
+          .body("ok".getBytes()).build();
+    };
+    final MyClientWithPayload target = Feign.builder().client(client)
+        .retryer(new Retryer.Default(1, 1, 3)).addCapability(capability)
+        .target(MyClientWithPayload.class, "http://localhost");
+
+    assertEquals("ok", target.echo("hello"));
+
+    final String prefix = "com.github.mwiede.metrics.feign.MyClientWithPayload.echo";
+    assertEquals(1, metricRegistry.timer(prefix + ".Timed").getCount());
+    assertEquals(1, metricRegistry.timer(prefix + ".encode.Timed").getCount());
+    assertEquals(1, metricRegistry.timer(prefix + ".transport.Timed").getCount());
+    assertEquals(1, metricRegistry.timer(prefix + ".decode.Timed").getCount());
+    assertEquals(1, metricRegistry.timer(prefix + ".retrySleep.Timed").getCount());
+    assertEquals(1, metricRegistry.timer(prefix + ".bodyRead.Timed").getCount());
+    assertEquals(0, metricRegistry.meter(prefix + ".unconsumedBodies.Metered").getCount());
+  }
+
+  @Test
+  public void unconsumedBodiesAreMetered() {
+    final Client client = (request, options) -> Response.builder().status(200).request(request)
+        .headers(Collections.emptyMap()).body(new ByteArrayInputStream(new byte[42]), null).build();
+    final MyClientWithAnnotationOnMethodLevel target = Feign.builder().client(client)
+        .addCapability(AnnotionMetricsCapability.builder(metricRegistry).phaseTimers().build())
+        .target(MyClientWithAnnotationOnMethodLevel.class, "http://localhost");
+
+    target.myMethod();
+
+    final String prefix = "com.github.mwiede.metrics.feign.MyClientWithAnnotationOnMethodLevel.myMethod";
+    assertEquals(1, metricRegistry.timer(prefix + ".bodyRead.Timed").getCount());
+    assertEquals(1, metricRegistry.meter(prefix + ".unconsumedBodies.Metered").getCount());
+  }
+
+  @Test
+  public void countedInFlight() {
+    final String prefix = "com.github.mwiede.metrics.feign.MyClientWithCounted";
+    final long[] observed = {0};
+    final Client client = (request, options) -> {
+      observed[0] += metricRegistry.counter(prefix + ".inFlight.Counted").getCount();
+      return Response.builder().status(200).request(request).headers(Collections.emptyMap())
+          .build();
+    };
+    final MyClientWithCounted target = Feign.builder().client(client)
+        .addCapability(new AnnotionMetricsCapability(metricRegistry))
+        .target(MyClientWithCounted.class, "http://localhost");
+
+    target.inFlight();
+    target.calls();
+    target.calls();
+
+    assertEquals("in flight while executing", 1, observed[0]);
+    final Gauge<?> highWaterMark =
+        metricRegistry.getGauges().get(prefix + ".inFlight.Counted.highWaterMark");
+    assertEquals(0, metricRegistry.counter(prefix + ".inFlight.Counted").getCount());
+    assertEquals(1L, highWaterMark.getValue());
+    assertEquals("reset on each read", 0L, highWaterMark.getValue());
+    assertEquals(2, metricRegistry.counter(prefix + ".calls").getCount());
+    assertNull(metricRegistry.getGauges().get(prefix + ".calls.highWaterMark"));
+  }
+
+  @Test
+  public void exceptionsAreMatchedOverTheCauseChain() {
+    final RuntimeException[] thrown = {
+        new RuntimeException(new RuntimeException(new IllegalStateException("root"))),
+        new RuntimeException(new IllegalArgumentException("other root")),
+        new IllegalStateException("no cause")};
+    final int[] call = {0};
+    final Client client = (request, options) -> {
+      throw thrown[call[0]++];
+    };
+    final MyClientWithExceptionCause target = Feign.builder().client(client)
+        .addCapability(AnnotionMetricsCapability.builder(metricRegistry).rootCauseMeters(1).build())
+        .target(MyClientWithExceptionCause.class, "http://localhost");
+
+    for (int i = 0; i < thrown.length; i++) {
+      try {
+        target.myMethod();
+      } catch (final RuntimeException e) {
+      }
+    }
+
+    final String prefix = "com.github.mwiede.metrics.feign.MyClientWithExceptionCause.myMethod.exceptions";
+    assertEquals(2, metricRegistry.meter(prefix).getCount());
+    assertEquals(2,
+        metricRegistry.getMeters().get(prefix + ".java_lang_IllegalStateException").getCount());
+    assertEquals("beyond the maximum number of classes", 1,
+        metricRegistry.getMeters().get(prefix + ".other").getCount());
+  }
+
+  @Test
+  public void retryMetricsArePublishedOncePerInvocation() {
+    final int[] call = {0};
+    final Client client = (request, options) -> {
+      if (call[0]++ < 2) {
+        throw new IOException("connection reset");
+      }
+      return Response.builder().status(200).request(request).headers(Collections.emptyMap())
+          .body("ok".getBytes()).build();
+    };
+    final MyClientWithPayload target = Feign.builder().client(client)
+        .retryer(new Retryer.Default(1, 1, 5))
+        .addCapability(AnnotionMetricsCapability.builder(metricRegistry).retryMetrics().build())
+        .target(MyClientWithPayload.class, "http://localhost");
+
+    target.echo("retried");
+    target.echo("not retried");
+
+    final String prefix = "com.github.mwiede.metrics.feign.MyClientWithPayload.echo";
+    assertEquals(2, metricRegistry.histogram(prefix + ".attempts").getCount());
+    assertEquals(3, metricRegistry.histogram(prefix + ".attempts").getSnapshot().getMax());
+    assertEquals(1, metricRegistry.histogram(prefix + ".attempts").getSnapshot().getMin());
+    assertEquals(4, metricRegistry.timer(prefix + ".attempt.Timed").getCount());
+    assertEquals(1, metricRegistry.timer(prefix + ".retryBackoff.Timed").getCount());
+  }
+
+  @Test
+  public void noopRegistry() {
+    final NoopMetricRegistry noopRegistry = new NoopMetricRegistry();
+    final Client client = new StubClient();
+    final AnnotionMetricsCapability capability = AnnotionMetricsCapability.builder(noopRegistry)
+        .payloadSizes().phaseTimers().retryMetrics().releaseMetricsOfCollectedClients().build();
+    final MyClientWithPayload target = Feign.builder().client(client).addCapability(capability)
+        .target(MyClientWithPayload.class, "http://localhost");
+
+    assertEquals("ok", target.echo("body"));
+    assertTrue(capability.release(target));
+    assertTrue(noopRegistry.getMetrics().isEmpty());
+  }
+
+  @Test
+  public void lazyRegistration() {
+    final Client client = new StubClient(request -> StubClient.response(request, 200, null));
+    final MyClientWithCounted target = Feign.builder().client(client)
+        .addCapability(AnnotionMetricsCapability.builder(metricRegistry).lazyRegistration()
+            .methodFromRequest().build())
+        .target(MyClientWithCounted.class, "http://localhost");
+
+    assertTrue(metricRegistry.getMetrics().isEmpty());
+
+    target.calls();
+    target.calls();
+
+    assertEquals(Collections.singleton("com.github.mwiede.metrics.feign.MyClientWithCounted.calls"),
+        metricRegistry.getNames());
+    assertEquals(2,
+        metricRegistry.counter("com.github.mwiede.metrics.feign.MyClientWithCounted.calls").getCount());
+  }
+}
@@ -0,0 +1,100 @@
+package com.github.mwiede.metrics.feign;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import feign.Feign;
+
+public class BufferedRecordingTest {
+
+  @Test
+  public void durationsAreRecordedOnFlush() {
+    final MetricRegistry metricRegistry = new MetricRegistry();
+    final AnnotionMetricsCapability capability = AnnotionMetricsCapability.builder(metricRegistry)
+        .bufferedRecording(1, TimeUnit.HOURS).build();
+    final MyClientWithAnnotationOnMethodLevel target = Feign.builder().client(new StubClient())
+        .addCapability(capability).target(MyClientWithAnnotationOnMethodLevel.class, "http://localhost");
+
+    for (int i = 0; i < 1100; i++) {
+      target.myMethod();
+    }
+
+    final String prefix = "com.github.mwiede.metrics.feign.MyClientWithAnnotationOnMethodLevel.myMethod";
+    assertEquals(0, metricRegistry.meter(prefix + ".Metered").getCount());
+    assertEquals(0, metricRegistry.timer(prefix + ".Timed").getCount());
+
+    capability.config.buffering.flush();
+
+    assertEquals(1100, metricRegistry.meter(prefix + ".Metered").getCount());
+    assertEquals(1100, metricRegistry.timer(prefix + ".Timed").getCount());
+  }
+
+  @Test
+  public void concurrentDurationsAreBufferedPerThread() throws Exception {
+    final Timer timer = new Timer();
+    final BufferedRecording recording = new BufferedRecording(TimeUnit.HOURS.toNanos(1));
+    final BufferedRecording.MethodBuffer buffer = recording.buffer(null, timer);
+    final int threads = 4;
+    final CyclicBarrier start = new CyclicBarrier(threads);
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      final List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        futures.add(executor.submit(() -> {
+          start.await();
+          for (int i = 0; i < 10000; i++) {
+            buffer.update(i);
+            if (i % 1000 == 0) {
+              // drained while the threads are appending
+              recording.flush();
+            }
+          }
+          return null;
+        }));
+      }
+      for (final Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    recording.flush();
+    assertEquals(threads * 10000, timer.getCount());
+    recording.flush();
+    assertEquals("durations are drained once", threads * 10000, timer.getCount());
+  }
+
+  @Test
+  public void durationsBeyondTheMaximumAreRecordedDirectly() {
+    final Timer timer = new Timer();
+    final BufferedRecording recording = new BufferedRecording(TimeUnit.HOURS.toNanos(1));
+    final BufferedRecording.MethodBuffer buffer = recording.buffer(null, timer);
+
+    for (int i = 0; i < BufferedRecording.MAX_BUFFERED + 5000; i++) {
+      buffer.update(i);
+    }
+    assertTrue(timer.getCount() >= 5000);
+
+    recording.flush();
+    assertEquals(BufferedRecording.MAX_BUFFERED + 5000, timer.getCount());
+    buffer.update(1);
+    assertEquals("a flush frees the buffers", BufferedRecording.MAX_BUFFERED + 5000,
+        timer.getCount());
+    recording.flush();
+    assertEquals(BufferedRecording.MAX_BUFFERED + 5001, timer.getCount());
+  }
+}
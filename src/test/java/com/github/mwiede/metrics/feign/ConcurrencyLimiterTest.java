@@ -0,0 +1,173 @@
+package com.github.mwiede.metrics.feign;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+import feign.AsyncClient;
+import feign.AsyncFeign;
+import feign.Feign;
+import feign.Response;
+
+public class ConcurrencyLimiterTest {
+
+  private MetricRegistry metricRegistry;
+
+  @Before
+  public void init() {
+    metricRegistry = new MetricRegistry();
+  }
+
+  @Test
+  public void excessInvocationsAreRejected() throws Exception {
+    final CountDownLatch entered = new CountDownLatch(1);
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final StubClient client = new StubClient(request -> {
+      entered.countDown();
+      try {
+        blocked.await();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return StubClient.response(request, 200, null);
+    });
+    final MyClientWithAnnotationOnMethodLevel target = Feign.builder().client(client)
+        .addCapability(
+            AnnotionMetricsCapability.builder(metricRegistry).adaptiveConcurrencyLimit(1, 1).build())
+        .target(MyClientWithAnnotationOnMethodLevel.class, "http://localhost");
+
+    final String prefix =
+        "com.github.mwiede.metrics.feign.MyClientWithAnnotationOnMethodLevel.myMethod.concurrencyLimit";
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final Future<?> first = executor.submit(target::myMethod);
+      entered.await();
+
+      assertEquals(1, metricRegistry.getGauges().get(prefix).getValue());
+      assertEquals(1, metricRegistry.getGauges().get(prefix + ".inFlight").getValue());
+      try {
+        target.myMethod();
+        fail();
+      } catch (final ConcurrencyLimitExceededException e) {
+        assertEquals(1, e.getLimit());
+      }
+      assertEquals(1, metricRegistry.meter(prefix + ".rejected").getCount());
+
+      blocked.countDown();
+      first.get();
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(0, metricRegistry.getGauges().get(prefix + ".inFlight").getValue());
+    target.myMethod();
+    assertEquals(2, metricRegistry.timer(
+        "com.github.mwiede.metrics.feign.MyClientWithAnnotationOnMethodLevel.myMethod.Timed").getCount());
+  }
+
+  @Test
+  public void asyncInvocationsAreRejectedWithAFailedFuture() {
+    final CompletableFuture<Response> pending = new CompletableFuture<>();
+    final AsyncClient<Object> client = (request, options, context) -> pending;
+    final MyAsyncClientWithAnnotationOnClassLevel target = AsyncFeign.asyncBuilder().client(client)
+        .addCapability(
+            AnnotionMetricsCapability.builder(metricRegistry).adaptiveConcurrencyLimit(1, 1).build())
+        .target(MyAsyncClientWithAnnotationOnClassLevel.class, "http://localhost");
+
+    final CompletableFuture<Void> first = target.myMethod();
+    final CompletableFuture<Void> rejected = target.myMethod();
+
+    assertFalse(first.isDone());
+    assertTrue(rejected.isCompletedExceptionally());
+    try {
+      rejected.join();
+      fail();
+    } catch (final CompletionException e) {
+      assertTrue(e.getCause() instanceof ConcurrencyLimitExceededException);
+    }
+    assertEquals(1, metricRegistry.meter("com.github.mwiede.metrics.feign."
+        + "MyAsyncClientWithAnnotationOnClassLevel.myMethod.concurrencyLimit.rejected").getCount());
+  }
+
+  @Test
+  public void concurrentFailuresAllShrinkTheLimit() throws Exception {
+    final ConcurrencyLimiter limiter = new ConcurrencyLimiter(100, 100);
+    final int threads = 4;
+    final int releases = 25;
+    for (int i = 0; i < threads * releases; i++) {
+      assertTrue(limiter.tryAcquire());
+    }
+    final CountDownLatch start = new CountDownLatch(1);
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      final List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        futures.add(executor.submit(() -> {
+          start.await();
+          for (int j = 0; j < releases; j++) {
+            limiter.release(TimeUnit.MILLISECONDS.toNanos(10), true);
+          }
+          return null;
+        }));
+      }
+      start.countDown();
+      for (final Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    // failures skipped by a contended update are applied by the next one
+    limiter.tryAcquire();
+    limiter.release(TimeUnit.MILLISECONDS.toNanos(10), true);
+
+    assertEquals(0, limiter.inFlight());
+    assertEquals(1, limiter.limit());
+  }
+
+  @Test
+  public void limitFollowsLatency() {
+    final ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 100);
+
+    for (int i = 0; i < 50; i++) {
+      saturate(limiter, TimeUnit.MILLISECONDS.toNanos(10), false);
+    }
+    final int stableLimit = limiter.limit();
+    assertTrue("the limit grows while latencies are stable", stableLimit > 10);
+
+    for (int i = 0; i < 10; i++) {
+      saturate(limiter, TimeUnit.MILLISECONDS.toNanos(100), false);
+    }
+    final int slowLimit = limiter.limit();
+    assertTrue("the limit shrinks once latencies rise", slowLimit < stableLimit);
+
+    saturate(limiter, TimeUnit.MILLISECONDS.toNanos(10), true);
+    assertTrue("the limit shrinks on failed requests", limiter.limit() < slowLimit);
+  }
+
+  private static void saturate(final ConcurrencyLimiter limiter, final long rttNanos,
+      final boolean dropped) {
+    int acquired = 0;
+    while (limiter.tryAcquire()) {
+      acquired++;
+    }
+    for (int i = 0; i < acquired; i++) {
+      limiter.release(rttNanos, dropped);
+    }
+  }
+}
@@ -0,0 +1,132 @@
+package com.github.mwiede.metrics.feign;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+import feign.Client;
+import feign.Feign;
+import feign.Request;
+import feign.Request.Options;
+import feign.Response;
+import feign.Util;
+
+public class FeignCachingClientDecoratorTest {
+
+  private final ManualClock clock = new ManualClock();
+  private final Options options = new Options();
+  private MetricRegistry metricRegistry;
+
+  @Before
+  public void init() {
+    metricRegistry = new MetricRegistry();
+  }
+
+  @After
+  public void clear() {
+    FeignMetricsInvocationHandlerFactoryDecorator.ACTUAL_METRIC.remove();
+  }
+
+  @Test
+  public void annotationOfTheMethodOverridesTheInterface() throws Exception {
+    final Method method = MyCachedClient.class.getMethod("item", String.class);
+
+    assertEquals(2, MethodAnnotations.of(method).responseCached.maxEntries());
+  }
+
+  @Test
+  public void responsesAreCachedRevalidatedAndEvicted() throws Exception {
+    final int[] notModified = {0};
+    final StubClient stub = new StubClient(request -> {
+      final String etag = "\"" + request.url() + "\"";
+      if (request.headers().containsKey("If-None-Match")) {
+        assertEquals(Collections.singletonList(etag), request.headers().get("If-None-Match"));
+        notModified[0]++;
+        return StubClient.response(request, 304, null);
+      }
+      return Response.builder().status(200).request(request)
+          .headers(Collections.singletonMap("ETag", Collections.singletonList(etag)))
+          .body(request.url().getBytes(StandardCharsets.UTF_8)).build();
+    });
+    final Method method = MyCachedClient.class.getMethod("item", String.class);
+    final ResponseCache cache = new ResponseCache(method.getAnnotation(ResponseCached.class),
+        new Meter(), new Meter(), new Meter(), new Meter(), clock);
+    FeignMetricsInvocationHandlerFactoryDecorator.ACTUAL_METRIC
+        .set(new MethodMetrics.Builder(method).cache(cache).build());
+    final Client client = new FeignCachingClientDecorator(stub, new MetricsConfig.Builder().build());
+
+    assertEquals("http://localhost/items/1", item(client, "1"));
+    assertEquals("http://localhost/items/1", item(client, "1"));
+    assertEquals(1, stub.sent.get());
+    assertEquals(1, cache.misses.getCount());
+    assertEquals(1, cache.hits.getCount());
+
+    clock.advance(100, TimeUnit.MILLISECONDS);
+    assertEquals("an expired response is revalidated", "http://localhost/items/1",
+        item(client, "1"));
+    assertEquals(1, notModified[0]);
+    assertEquals(1, cache.revalidations.getCount());
+    assertEquals("http://localhost/items/1", item(client, "1"));
+    assertEquals(2, stub.sent.get());
+
+    item(client, "2");
+    item(client, "3");
+    assertEquals(1, cache.evictions.getCount());
+    assertEquals((long) "http://localhost/items/2".length() * 2, (long) cache.getValue());
+    item(client, "1");
+    assertEquals("the least recently used response was evicted", 5, stub.sent.get());
+  }
+
+  @Test
+  public void cachedResponsesAreKeyedByTheGivenHeaders() throws Exception {
+    final StubClient client = new StubClient(request -> StubClient.response(request, 200,
+        request.headers().get("Accept").iterator().next()));
+    final MyCachedClient target = Feign.builder().client(client)
+        .addCapability(AnnotionMetricsCapability.builder(metricRegistry).cacheResponses().build())
+        .target(MyCachedClient.class, "http://localhost");
+
+    assertEquals("text/plain", target.document("1", "text/plain", "a"));
+    assertEquals("text/plain", target.document("1", "text/plain", "b"));
+    assertEquals("other headers do not select the response", 1, client.sent.get());
+    assertEquals("text/html", target.document("1", "text/html", "a"));
+    assertEquals(2, client.sent.get());
+    assertTrue(metricRegistry.getNames().contains(
+        "com.github.mwiede.metrics.feign.MyCachedClient.document.cacheBytes"));
+  }
+
+  @Test
+  public void responsesAreOnlyCachedIfEnabled() {
+    final StubClient client = new StubClient();
+    final MyCachedClient target = Feign.builder().client(client)
+        .addCapability(new AnnotionMetricsCapability(metricRegistry))
+        .target(MyCachedClient.class, "http://localhost");
+
+    target.item("1");
+    target.item("1");
+    assertEquals(2, client.sent.get());
+    assertFalse(metricRegistry.getNames().contains(
+        "com.github.mwiede.metrics.feign.MyCachedClient.item.cacheBytes"));
+  }
+
+  private String item(final Client client, final String id) throws IOException {
+    final Map<String, Collection<String>> headers = Collections.emptyMap();
+    final Response response = client.execute(Request.create(Request.HttpMethod.GET,
+        "http://localhost/items/" + id, headers, null, StandardCharsets.UTF_8, null), options);
+    return Util.toString(response.body().asReader(StandardCharsets.UTF_8));
+  }
+}
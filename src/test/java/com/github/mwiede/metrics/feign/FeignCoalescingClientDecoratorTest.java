@@ -0,0 +1,134 @@
+package com.github.mwiede.metrics.feign;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+import feign.Client;
+import feign.Feign;
+import feign.Request;
+import feign.Request.Options;
+import feign.Response;
+
+public class FeignCoalescingClientDecoratorTest {
+
+  private final Request request = Request.create(Request.HttpMethod.GET, "http://localhost/items/1",
+      Collections.emptyMap(), null, StandardCharsets.UTF_8, null);
+  private final Options options = new Options(10, TimeUnit.SECONDS, 50, TimeUnit.MILLISECONDS, true);
+
+  @Test
+  public void identicalRequestsInFlightAreCoalesced() throws Exception {
+    final MetricRegistry metricRegistry = new MetricRegistry();
+    final String prefix = "com.github.mwiede.metrics.feign.MyGetClient.item";
+    final CountDownLatch joined = new CountDownLatch(2);
+    metricRegistry.register(prefix + ".coalesced.Metered", new Meter() {
+      @Override
+      public void mark() {
+        super.mark();
+        joined.countDown();
+      }
+    });
+    final CountDownLatch firstSent = new CountDownLatch(1);
+    final CountDownLatch allSent = new CountDownLatch(3);
+    final CountDownLatch release = new CountDownLatch(1);
+    final StubClient client = new StubClient(r -> {
+      firstSent.countDown();
+      allSent.countDown();
+      try {
+        release.await(10, TimeUnit.SECONDS);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return StubClient.response(r, 200, r.url());
+    });
+    final MyGetClient target = Feign.builder().client(client)
+        .addCapability(AnnotionMetricsCapability.builder(metricRegistry)
+            .coalesceIdenticalRequests("Accept").build())
+        .target(MyGetClient.class, "http://localhost");
+
+    final ExecutorService executor = Executors.newFixedThreadPool(5);
+    try {
+      final Future<String> first = executor.submit(() -> target.item("1", "text/plain"));
+      assertTrue(firstSent.await(10, TimeUnit.SECONDS));
+      final Future<String> second = executor.submit(() -> target.item("1", "text/plain"));
+      final Future<String> third = executor.submit(() -> target.item("1", "text/plain"));
+      final Future<String> otherItem = executor.submit(() -> target.item("2", "text/plain"));
+      final Future<String> otherHeader = executor.submit(() -> target.item("1", "text/html"));
+      assertTrue(joined.await(10, TimeUnit.SECONDS));
+      assertTrue(allSent.await(10, TimeUnit.SECONDS));
+      release.countDown();
+
+      assertEquals("http://localhost/items/1", first.get());
+      assertEquals("each waiter reads its own copy of the body", "http://localhost/items/1",
+          second.get());
+      assertEquals("http://localhost/items/1", third.get());
+      assertEquals("http://localhost/items/2", otherItem.get());
+      assertEquals("http://localhost/items/1", otherHeader.get());
+    } finally {
+      executor.shutdown();
+    }
+
+    assertEquals(3, client.sent.get());
+    assertEquals(3, metricRegistry.meter(prefix + ".originating.Metered").getCount());
+    assertEquals(2, metricRegistry.meter(prefix + ".coalesced.Metered").getCount());
+    assertEquals(5, metricRegistry.timer(prefix + ".Timed").getCount());
+
+    target.item("1", "text/plain");
+    assertEquals("requests are only coalesced while in flight", 4, client.sent.get());
+  }
+
+  @Test
+  public void responseOfALoneRequestIsNotBuffered() throws Exception {
+    final Response response = StubClient.response(request, 200, "ok");
+    final Client client = new FeignCoalescingClientDecorator((r, o) -> response,
+        new MetricsConfig.Builder().coalescing().build());
+
+    assertSame(response, client.execute(request, options));
+  }
+
+  @Test
+  public void followersWaitAtMostTheReadTimeout() throws Exception {
+    final CountDownLatch sent = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Client client = new FeignCoalescingClientDecorator(new StubClient(r -> {
+      sent.countDown();
+      try {
+        release.await(10, TimeUnit.SECONDS);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return StubClient.response(r, 200, "ok");
+    }), new MetricsConfig.Builder().coalescing().build());
+
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final Future<Response> originating = executor.submit(() -> client.execute(request, options));
+      assertTrue(sent.await(10, TimeUnit.SECONDS));
+      try {
+        client.execute(request, options);
+        fail("the follower should time out");
+      } catch (final SocketTimeoutException e) {
+        // expected
+      }
+      release.countDown();
+      assertEquals(200, originating.get().status());
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package com.github.mwiede.metrics.feign;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+import feign.Feign;
+import feign.Request;
+import feign.Response;
+import feign.RetryableException;
+import feign.Retryer;
+
+public class FeignHedgingClientDecoratorTest {
+
+  private MetricRegistry metricRegistry;
+  private final ThreadLocal<Integer> attempt = new ThreadLocal<>();
+  private final AtomicInteger submitted = new AtomicInteger();
+  private final AtomicInteger closed = new AtomicInteger();
+  private final CountDownLatch release = new CountDownLatch(1);
+  private ThreadPoolExecutor executor;
+  private StubClient client;
+
+  @Before
+  public void init() {
+    metricRegistry = new MetricRegistry();
+    executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 1, TimeUnit.SECONDS,
+        new SynchronousQueue<>()) {
+      @Override
+      public void execute(final Runnable command) {
+        final int index = submitted.getAndIncrement();
+        super.execute(() -> {
+          attempt.set(index);
+          command.run();
+        });
+      }
+    };
+    client = new StubClient(request -> {
+      // the first attempt of each request is answered only once released, its hedge at once
+      final Integer index = attempt.get();
+      if (index != null && index % 2 == 0) {
+        try {
+          release.await(10, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return closeable(request, "first");
+      }
+      return StubClient.response(request, 200, "ok");
+    });
+  }
+
+  @After
+  public void shutdown() {
+    release.countDown();
+    executor.shutdown();
+  }
+
+  @Test
+  public void slowRequestsReturnWithTheirHedge() throws Exception {
+    final MyIdempotentClient target = Feign.builder().client(client)
+        .options(new Request.Options(1, TimeUnit.SECONDS, 100, TimeUnit.MILLISECONDS, true))
+        .retryer(Retryer.NEVER_RETRY)
+        .addCapability(AnnotionMetricsCapability.builder(metricRegistry)
+            .hedgeIdempotentRequests(0.95, 0.05, executor).build())
+        .target(MyIdempotentClient.class, "http://localhost");
+
+    for (int i = 0; i < 20; i++) {
+      assertEquals(0, submitted.get());
+      assertEquals("ok", target.call());
+    }
+    // the first attempts stay blocked, so each invocation returns with the response of its hedge
+    for (int i = 0; i < 10; i++) {
+      assertEquals("ok", target.call());
+    }
+    assertEquals(20, submitted.get());
+    try {
+      target.call();
+      fail("without a hedge, the wait is bounded by the read timeout");
+    } catch (final RetryableException e) {
+      // expected
+    }
+
+    final String prefix = "com.github.mwiede.metrics.feign.MyIdempotentClient.call";
+    assertEquals(10, metricRegistry.meter(prefix + ".hedges.Metered").getCount());
+    assertEquals(10, metricRegistry.meter(prefix + ".hedgesWon.Metered").getCount());
+    assertEquals("the budget allows a burst of 10 hedges", 1,
+        metricRegistry.meter(prefix + ".hedgeBudgetExhausted.Metered").getCount());
+
+    release.countDown();
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals("responses of abandoned attempts are closed", 11, closed.get());
+  }
+
+  @Test
+  public void postRequestsAreNotHedgedUnlessIdempotent() {
+    final MyIdempotentClient target = Feign.builder().client(client)
+        .addCapability(AnnotionMetricsCapability.builder(metricRegistry)
+            .hedgeIdempotentRequests(0.5, 1.0, executor).build())
+        .target(MyIdempotentClient.class, "http://localhost");
+
+    for (int i = 0; i < 23; i++) {
+      assertEquals("ok", target.notIdempotent());
+    }
+
+    final String prefix = "com.github.mwiede.metrics.feign.MyIdempotentClient.notIdempotent";
+    assertEquals(0, executor.getTaskCount());
+    assertEquals(0, metricRegistry.meter(prefix + ".hedges.Metered").getCount());
+  }
+
+  private Response closeable(final Request request, final String body) {
+    final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    return Response.builder().status(200).request(request).headers(Collections.emptyMap())
+        .body(new ByteArrayInputStream(bytes) {
+          @Override
+          public void close() {
+            closed.incrementAndGet();
+          }
+        }, bytes.length)
+        .build();
+  }
+}
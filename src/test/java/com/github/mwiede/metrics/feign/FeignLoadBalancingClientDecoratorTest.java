@@ -0,0 +1,81 @@
+package com.github.mwiede.metrics.feign;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+import feign.Feign;
+
+public class FeignLoadBalancingClientDecoratorTest {
+
+  private final ManualClock clock = new ManualClock();
+
+  @Test
+  public void slowEndpointIsAvoidedOnceItsLatencyIsKnown() {
+    final MetricRegistry metricRegistry = new MetricRegistry();
+    final StubClient client = new StubClient(request -> {
+      clock.advance(request.url().startsWith("http://slow:8080/") ? 20 : 1, TimeUnit.MILLISECONDS);
+      return StubClient.response(request, 200, request.url());
+    });
+    final MyGetClient target = Feign.builder().client(client)
+        .addCapability(AnnotionMetricsCapability.builder(metricRegistry).balanceLoad().build())
+        .target(new LoadBalancedTarget<>(MyGetClient.class, "items",
+            Arrays.asList("http://slow:8080", "http://fast:8080/"), clock));
+
+    int fast = 0;
+    for (int i = 0; i < 50; i++) {
+      final String url = target.item("1", "text/plain");
+      assertTrue(url, url.endsWith(":8080/items/1"));
+      if (url.startsWith("http://fast:8080/")) {
+        fast++;
+      }
+    }
+
+    final String prefix = "com.github.mwiede.metrics.feign.MyGetClient.endpoints.";
+    assertEquals("each endpoint is tried once, then the slow one is avoided", 49, fast);
+    assertEquals(49, metricRegistry.meter(prefix + "fast_8080.selected").getCount());
+    assertEquals(49, metricRegistry.timer(prefix + "fast_8080.Timed").getCount());
+    assertEquals(1, metricRegistry.meter(prefix + "slow_8080.selected").getCount());
+  }
+
+  @Test
+  public void onlyPathsOfTheTargetAreBalanced() {
+    assertTrue(FeignLoadBalancingClientDecorator.isBelow("http://items", "http://items"));
+    assertTrue(FeignLoadBalancingClientDecorator.isBelow("http://items/1", "http://items"));
+    assertTrue(FeignLoadBalancingClientDecorator.isBelow("http://items?id=1", "http://items"));
+    assertFalse(FeignLoadBalancingClientDecorator.isBelow("http://items2/1", "http://items"));
+    assertFalse(FeignLoadBalancingClientDecorator.isBelow("http://items.example.com/1",
+        "http://items"));
+  }
+
+  @Test
+  public void targetsAreEqualByTheirEndpoints() {
+    final LoadBalancedTarget<MyGetClient> target =
+        new LoadBalancedTarget<>(MyGetClient.class, "items", "http://a", "http://b/");
+
+    assertEquals(target,
+        new LoadBalancedTarget<>(MyGetClient.class, "items", "http://a/", "http://b"));
+    assertEquals(target.hashCode(),
+        new LoadBalancedTarget<>(MyGetClient.class, "items", "http://a/", "http://b").hashCode());
+    assertNotEquals(target, new LoadBalancedTarget<>(MyGetClient.class, "items", "http://a"));
+    assertNotEquals(target,
+        new LoadBalancedTarget<>(MyGetClient.class, "items", "http://b", "http://a"));
+  }
+
+  @Test
+  public void requestsInFlightOfAnUntriedEndpointArePenalized() {
+    final LoadBalancer.Endpoint endpoint = new LoadBalancer.Endpoint("http://a", clock);
+    assertEquals(0, endpoint.cost(clock.getTick()), 0);
+
+    endpoint.inFlight.incrementAndGet();
+    assertEquals(LoadBalancer.FAILURE_PENALTY_NANOS, endpoint.cost(clock.getTick()), 0);
+  }
+}
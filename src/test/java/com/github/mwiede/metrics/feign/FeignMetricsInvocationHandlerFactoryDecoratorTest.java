@@ -1,6 +1,8 @@
 package com.github.mwiede.metrics.feign;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.verify;
 
@@ -8,6 +10,7 @@ import java.lang.reflect.Method;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -20,6 +23,7 @@ import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 
 import feign.InvocationHandlerFactory;
 import feign.Target;
@@ -129,6 +133,40 @@ public class FeignMetricsInvocationHandlerFactoryDecoratorTest {
             .sorted().collect(Collectors.toList()));
   }
 
+  @Test
+  public void createWithTimerSupplier() throws Exception {
+    final Timer timer = new Timer();
+    feignMetricsInvocationHandlerFactoryDecorator =
+        new FeignMetricsInvocationHandlerFactoryDecorator(invocationHandlerFactory, metricRegistry,
+            new MetricsConfig.Builder().timerSupplier(() -> timer).build());
+    dispatch = new HashMap<>();
+    dispatch.put(MyClientWithAnnotationOnMethodLevel.class.getMethods()[0], methodHandler);
+    feignMetricsInvocationHandlerFactoryDecorator.create(target, dispatch);
+    assertSame(timer, metricRegistry.getTimers().get(
+        "com.github.mwiede.metrics.feign.MyClientWithAnnotationOnMethodLevel.myMethod.Timed"));
+  }
+
+  @Test
+  public void createWithTimerReservoirAnnotation() throws Exception {
+    final Timer timer = new Timer();
+    feignMetricsInvocationHandlerFactoryDecorator =
+        new FeignMetricsInvocationHandlerFactoryDecorator(invocationHandlerFactory, metricRegistry,
+            new MetricsConfig.Builder().timerSupplier(() -> timer).build());
+    dispatch = new HashMap<>();
+    dispatch.put(MyClientWithTimerReservoir.class.getMethods()[0], methodHandler);
+    feignMetricsInvocationHandlerFactoryDecorator.create(target, dispatch);
+    final Timer registered = metricRegistry.getTimers().get(
+        "com.github.mwiede.metrics.feign.MyClientWithTimerReservoir.myMethod.Timed");
+    assertNotSame(timer, registered);
+    registered.update(1, TimeUnit.MILLISECONDS);
+    assertEquals(1, registered.getSnapshot().size());
+    assertEquals("the snapshot of other readers is left alone", 1,
+        registered.getSnapshot().size());
+    assertEquals("the method level overrides the interface", TimerReservoir.Type.HDR_HISTOGRAM,
+        MethodAnnotations.of(MyClientWithTimerReservoir.class.getMethods()[0]).timerReservoir
+            .value());
+  }
+
   @After
   public void after() {
     verify(invocationHandlerFactory).create(target, dispatch);
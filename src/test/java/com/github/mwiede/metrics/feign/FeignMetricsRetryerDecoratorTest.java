@@ -2,6 +2,10 @@ package com.github.mwiede.metrics.feign;
 
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.UniformSnapshot;
 import feign.Request;
 import feign.RetryableException;
 import feign.Retryer;
@@ -12,9 +16,11 @@ import org.mockito.Mockito;
 import java.util.Date;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 public class FeignMetricsRetryerDecoratorTest {
 
@@ -43,6 +49,54 @@ public class FeignMetricsRetryerDecoratorTest {
         });
     }
 
+    @Test
+    public void clonesShareMeters() {
+
+        FeignMetricsInvocationHandlerFactoryDecorator.ACTUAL_METHOD.set(this.getClass().getDeclaredMethods()[0]);
+
+        final FeignMetricsRetryerDecorator retryer =
+                new FeignMetricsRetryerDecorator(new Retryer.Default(), metricRegistry);
+        retryer.clone().continueOrPropagate(
+                new RetryableException(500, "message", Request.HttpMethod.GET, new Date(), Mockito.mock(Request.class)));
+        retryer.clone().continueOrPropagate(
+                new RetryableException(500, "message", Request.HttpMethod.GET, new Date(), Mockito.mock(Request.class)));
+
+        assertEquals("wrong number of meter metrics.", 1, metricRegistry.getMeters().values().size());
+        assertEquals("wrong number of invocations.", 2,
+                metricRegistry.getMeters().values().iterator().next().getCount());
+    }
+
+    @Test
+    public void backoffWithoutLatencyValuesIsTheDefault() {
+        final Timer timer = new Timer(new Reservoir() {
+            @Override
+            public int size() {
+                return 0;
+            }
+
+            @Override
+            public void update(long value) {
+                // an interval which was just reset
+            }
+
+            @Override
+            public Snapshot getSnapshot() {
+                return new UniformSnapshot(new long[0]);
+            }
+        });
+        timer.update(1, TimeUnit.SECONDS);
+        final MethodMetrics metrics = new MethodMetrics.Builder(getClass().getDeclaredMethods()[0]).timer(timer)
+                .build();
+        final FeignMetricsRetryerDecorator retryer = new FeignMetricsRetryerDecorator(new Retryer.Default(),
+                metricRegistry, new MetricsConfig.Builder().adaptiveBackoff(3, TimeUnit.SECONDS.toNanos(1)).build());
+
+        final long backoffNanos = retryer.backoffNanos(
+                new RetryableException(503, "message", Request.HttpMethod.GET, null, Mockito.mock(Request.class)),
+                metrics);
+
+        assertTrue("the median of an empty snapshot is not used: " + backoffNanos,
+                backoffNanos >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
 
     @Test
     public void testClone() {
@@ -0,0 +1,94 @@
+package com.github.mwiede.metrics.feign;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.codahale.metrics.Snapshot;
+
+public class HdrHistogramReservoirTest {
+
+  @Test
+  public void snapshot() {
+    final HdrHistogramReservoir reservoir = new HdrHistogramReservoir();
+    for (long i = 1; i <= 1000; i++) {
+      reservoir.update(i);
+    }
+
+    final Snapshot snapshot = reservoir.getSnapshot();
+
+    assertEquals(1000, snapshot.size());
+    assertEquals(1000, reservoir.size());
+    assertEquals(1, snapshot.getMin());
+    assertEquals(1000, snapshot.getMax());
+    assertEquals(500.5, snapshot.getMean(), 1);
+    assertEquals(500, snapshot.getMedian(), 1);
+    assertEquals(999, snapshot.get999thPercentile(), 1);
+  }
+
+  @Test
+  public void snapshotsAreRepeatable() {
+    final HdrHistogramReservoir reservoir = new HdrHistogramReservoir();
+    reservoir.update(5);
+    reservoir.getSnapshot();
+    reservoir.update(7);
+
+    final Snapshot snapshot = reservoir.getSnapshot();
+
+    assertEquals(2, snapshot.size());
+    assertEquals(5, snapshot.getMin());
+    assertEquals(7, snapshot.getMax());
+    assertEquals(2, reservoir.getSnapshot().size());
+  }
+
+  @Test
+  public void snapshotContainsOnlyValuesOfTheWindow() {
+    final ManualClock clock = new ManualClock();
+    final HdrHistogramReservoir reservoir =
+        new HdrHistogramReservoir(3, 60, TimeUnit.SECONDS, clock);
+    reservoir.update(1000);
+    clock.advance(30, TimeUnit.SECONDS);
+    reservoir.update(5);
+    assertEquals(1000, reservoir.getSnapshot().getMax());
+
+    clock.advance(35, TimeUnit.SECONDS);
+    final Snapshot snapshot = reservoir.getSnapshot();
+
+    assertEquals(1, snapshot.size());
+    assertEquals(5, snapshot.getMax());
+    assertEquals("values are dropped without further updates or snapshots", 0,
+        advanceAndSnapshot(clock, reservoir).size());
+  }
+
+  @Test
+  public void cumulativeSnapshotContainsAllValues() {
+    final HdrHistogramReservoir reservoir = HdrHistogramReservoir.cumulative(3);
+    reservoir.update(5);
+    reservoir.getSnapshot();
+    reservoir.update(7);
+
+    assertEquals(2, reservoir.getSnapshot().size());
+    assertEquals(2, reservoir.getSnapshot().size());
+  }
+
+  @Test
+  public void intervalSnapshotContainsValuesSincePreviousSnapshot() {
+    final HdrHistogramReservoir reservoir = HdrHistogramReservoir.intervals(3);
+    reservoir.update(5);
+    reservoir.getSnapshot();
+
+    final Snapshot snapshot = reservoir.getSnapshot();
+
+    assertEquals(0, snapshot.size());
+    assertEquals(0, snapshot.getMax());
+    assertEquals(0, snapshot.getValues().length);
+  }
+
+  private static Snapshot advanceAndSnapshot(final ManualClock clock,
+      final HdrHistogramReservoir reservoir) {
+    clock.advance(10, TimeUnit.MINUTES);
+    return reservoir.getSnapshot();
+  }
+}
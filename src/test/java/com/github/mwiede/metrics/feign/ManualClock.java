@@ -0,0 +1,22 @@
+package com.github.mwiede.metrics.feign;
+
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Clock;
+
+/**
+ * A {@link Clock} which only moves when advanced.
+ */
+class ManualClock extends Clock {
+
+  private volatile long tick;
+
+  @Override
+  public long getTick() {
+    return tick;
+  }
+
+  void advance(final long duration, final TimeUnit unit) {
+    tick += unit.toNanos(duration);
+  }
+}
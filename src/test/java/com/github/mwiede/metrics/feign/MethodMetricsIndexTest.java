@@ -0,0 +1,87 @@
+package com.github.mwiede.metrics.feign;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import feign.Contract;
+import feign.MethodMetadata;
+import feign.Target;
+import feign.Target.HardCodedTarget;
+
+public class MethodMetricsIndexTest {
+
+  private final Method method = MyGetClient.class.getMethods()[0];
+  private final MethodMetadata metadata =
+      new Contract.Default().parseAndValidateMetadata(MyGetClient.class).get(0);
+  private final MethodMetrics metrics = new MethodMetrics.Builder(method).build();
+
+  @Test
+  public void targetsOfTheSameTypeShareAnEntry() {
+    final MethodMetricsIndex index = new MethodMetricsIndex(null);
+    for (int i = 0; i < 100; i++) {
+      index.register(target("http://host" + i), method, metrics);
+    }
+
+    assertSame(metrics, index.get(target("http://other"), metadata));
+  }
+
+  @Test
+  public void entryIsRemovedWithItsLastRegistration() {
+    final MethodMetricsIndex index = new MethodMetricsIndex(null);
+    index.register(target("http://a"), method, metrics);
+    index.register(target("http://b"), method, metrics);
+
+    index.remove(target("http://a"), method, metrics);
+    assertSame(metrics, index.get(target("http://b"), metadata));
+
+    index.remove(target("http://b"), method, metrics);
+    assertNull(index.get(target("http://b"), metadata));
+  }
+
+  @Test
+  public void entriesArePartitionedByDimension() {
+    final MethodMetricsIndex index =
+        new MethodMetricsIndex(new TargetDimensions(TargetDimensions.Type.HOST, 10));
+    index.register(target("http://a"), method, metrics);
+
+    assertSame(metrics, index.get(target("http://a"), metadata));
+    assertNull(index.get(target("http://b"), metadata));
+  }
+
+  @Test
+  public void dimensionOfATargetIsResolvedOnlyOnRegistration() {
+    final AtomicInteger resolved = new AtomicInteger();
+    final MethodMetricsIndex index =
+        new MethodMetricsIndex(new TargetDimensions(TargetDimensions.Type.HOST, 10) {
+          @Override
+          synchronized String of(final Target<?> target) {
+            resolved.incrementAndGet();
+            return super.of(target);
+          }
+        });
+    final HardCodedTarget<MyGetClient> a = target("http://a");
+    final HardCodedTarget<MyGetClient> b = target("http://b");
+    index.register(a, method, metrics);
+    index.register(b, method, metrics);
+
+    for (int i = 0; i < 10; i++) {
+      assertSame(metrics, index.get(a, metadata));
+      assertSame(metrics, index.get(b, metadata));
+    }
+    assertEquals(2, resolved.get());
+
+    index.remove(a, method, metrics);
+    assertNull(index.get(a, metadata));
+    assertSame(metrics, index.get(b, metadata));
+  }
+
+  private static HardCodedTarget<MyGetClient> target(final String url) {
+    return new HardCodedTarget<>(MyGetClient.class, url);
+  }
+}
@@ -0,0 +1,141 @@
+package com.github.mwiede.metrics.feign;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+import feign.Feign;
+
+public class MetricsLifecycleTest {
+
+  private MetricRegistry metricRegistry;
+
+  @Before
+  public void init() {
+    metricRegistry = new MetricRegistry();
+  }
+
+  @Test
+  public void releasedClientsRemoveTheirMetrics() {
+    final StubClient client = new StubClient(429);
+    final AnnotionMetricsCapability capability = AnnotionMetricsCapability.builder(metricRegistry)
+        .detailedResponseMeters().releaseMetricsOfCollectedClients().build();
+    final MyClientWithAnnotationOnMethodLevel first = Feign.builder().client(client)
+        .addCapability(capability).target(MyClientWithAnnotationOnMethodLevel.class, "http://localhost");
+    final MyClientWithAnnotationOnMethodLevel second = Feign.builder().client(client)
+        .addCapability(capability).target(MyClientWithAnnotationOnMethodLevel.class, "http://localhost");
+
+    try {
+      first.myMethod();
+    } catch (final Exception e) {
+    }
+    final int registered = metricRegistry.getMetrics().size();
+
+    assertTrue(capability.release(first));
+    assertFalse(capability.release(first));
+    assertEquals("metrics are still used by the second client", registered,
+        metricRegistry.getMetrics().size());
+
+    assertTrue(capability.release(second));
+    assertTrue(metricRegistry.getMetrics().isEmpty());
+  }
+
+  @Test
+  public void collectedClientsRemoveTheirMetrics() throws InterruptedException {
+    final AnnotionMetricsCapability capability = AnnotionMetricsCapability.builder(metricRegistry)
+        .methodFromRequest().releaseMetricsOfCollectedClients().build();
+    final WeakReference<?> target = invokeOnce(capability, MyClientWithAnnotationOnMethodLevel.class,
+        MyClientWithAnnotationOnMethodLevel::myMethod);
+
+    awaitCollected(target, capability);
+    assertTrue(metricRegistry.getMetrics().isEmpty());
+  }
+
+  @Test
+  public void collectedClientsWithDefaultMethodsRemoveTheirMetrics() throws InterruptedException {
+    final AnnotionMetricsCapability capability = AnnotionMetricsCapability.builder(metricRegistry)
+        .methodFromRequest().releaseMetricsOfCollectedClients().build();
+    final WeakReference<?> target =
+        invokeOnce(capability, MyClientWithDefaultMethod.class, MyClientWithDefaultMethod::twice);
+
+    awaitCollected(target, capability);
+    assertTrue(metricRegistry.getMetrics().isEmpty());
+  }
+
+  /**
+   * @return a reference to a client, which was invoked once and is not referenced otherwise
+   */
+  private <T> WeakReference<T> invokeOnce(final AnnotionMetricsCapability capability,
+      final Class<T> type, final Consumer<T> invocation) {
+    final T target = Feign.builder().client(new StubClient()).addCapability(capability)
+        .target(type, "http://localhost");
+    invocation.accept(target);
+    assertFalse(metricRegistry.getMetrics().isEmpty());
+    return new WeakReference<>(target);
+  }
+
+  private void awaitCollected(final WeakReference<?> target,
+      final AnnotionMetricsCapability capability) throws InterruptedException {
+    for (int i = 0; i < 50 && target.get() != null; i++) {
+      System.gc();
+    }
+    assertNull("the client was collected", target.get());
+    // the reference to its invocation handler is enqueued by the reference handler thread
+    for (int i = 0; i < 50 && !metricRegistry.getMetrics().isEmpty(); i++) {
+      Thread.sleep(10);
+      capability.config.lifecycle.cleanUp(System.nanoTime());
+    }
+  }
+
+  @Test
+  public void idleMetricsAreEvictedAndRegisteredAgain() {
+    final AnnotionMetricsCapability capability = AnnotionMetricsCapability.builder(metricRegistry)
+        .methodFromRequest().evictIdleMetrics(1, TimeUnit.HOURS).build();
+    final MyClientWithAnnotationOnMethodLevel target = Feign.builder().client(new StubClient())
+        .addCapability(capability).target(MyClientWithAnnotationOnMethodLevel.class, "http://localhost");
+    final String prefix = "com.github.mwiede.metrics.feign.MyClientWithAnnotationOnMethodLevel.myMethod";
+    final long now = System.nanoTime();
+
+    target.myMethod();
+    capability.config.lifecycle.cleanUp(now + TimeUnit.MINUTES.toNanos(30));
+    capability.config.lifecycle.cleanUp(now + TimeUnit.MINUTES.toNanos(60));
+    assertEquals("touched within the window", 1,
+        metricRegistry.getTimers().get(prefix + ".Timed").getCount());
+
+    capability.config.lifecycle.cleanUp(now + TimeUnit.MINUTES.toNanos(91));
+    assertTrue(metricRegistry.getMetrics().isEmpty());
+
+    target.myMethod();
+    assertEquals(1, metricRegistry.getTimers().get(prefix + ".Timed").getCount());
+    assertEquals(1, metricRegistry.getMeters().get(prefix + ".2xx-responses").getCount());
+  }
+
+  @Test
+  public void lazyRegistrationOfReleasedClients() {
+    final AnnotionMetricsCapability capability = AnnotionMetricsCapability.builder(metricRegistry)
+        .lazyRegistration().releaseMetricsOfCollectedClients().build();
+    final MyClientWithCounted target = Feign.builder().client(new StubClient())
+        .addCapability(capability).target(MyClientWithCounted.class, "http://localhost");
+
+    target.calls();
+    assertEquals(Collections.singleton("com.github.mwiede.metrics.feign.MyClientWithCounted.calls"),
+        metricRegistry.getNames());
+
+    assertTrue(capability.release(target));
+    target.calls();
+    target.inFlight();
+
+    assertTrue(metricRegistry.getMetrics().isEmpty());
+  }
+}
@@ -0,0 +1,20 @@
+package com.github.mwiede.metrics.feign;
+
+import java.util.concurrent.CompletableFuture;
+
+import com.codahale.metrics.annotation.ExceptionMetered;
+import com.codahale.metrics.annotation.Metered;
+import com.codahale.metrics.annotation.ResponseMetered;
+import com.codahale.metrics.annotation.Timed;
+
+import feign.RequestLine;
+
+@Timed
+@ExceptionMetered
+@Metered
+@ResponseMetered
+public interface MyAsyncClientWithAnnotationOnClassLevel {
+
+  @RequestLine("POST /")
+  CompletableFuture<Void> myMethod();
+}
@@ -0,0 +1,24 @@
+package com.github.mwiede.metrics.feign;
+
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.annotation.Timed;
+
+import feign.Headers;
+import feign.Param;
+import feign.RequestLine;
+
+@ResponseCached(ttl = 1, maxEntries = 10)
+interface MyCachedClient {
+  @Timed
+  @ResponseCached(ttl = 50, ttlUnit = TimeUnit.MILLISECONDS, maxEntries = 2)
+  @RequestLine("GET /items/{id}")
+  String item(@Param("id") String id);
+
+  @Timed
+  @ResponseCached(ttl = 1, ttlUnit = TimeUnit.MINUTES, headers = "Accept")
+  @RequestLine("GET /documents/{id}")
+  @Headers({"Accept: {accept}", "X-Request-Id: {requestId}"})
+  String document(@Param("id") String id, @Param("accept") String accept,
+      @Param("requestId") String requestId);
+}
@@ -0,0 +1,15 @@
+package com.github.mwiede.metrics.feign;
+
+import com.codahale.metrics.annotation.Counted;
+
+import feign.RequestLine;
+
+interface MyClientWithCounted {
+  @Counted
+  @RequestLine("POST /")
+  void inFlight();
+
+  @Counted(name = "calls", monotonic = true)
+  @RequestLine("POST /")
+  void calls();
+}
@@ -0,0 +1,15 @@
+package com.github.mwiede.metrics.feign;
+
+import com.codahale.metrics.annotation.Timed;
+
+import feign.RequestLine;
+
+interface MyClientWithDefaultMethod {
+  @Timed
+  @RequestLine("GET /")
+  String item();
+
+  default String twice() {
+    return item() + item();
+  }
+}
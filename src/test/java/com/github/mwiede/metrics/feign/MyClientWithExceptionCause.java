@@ -0,0 +1,11 @@
+package com.github.mwiede.metrics.feign;
+
+import com.codahale.metrics.annotation.ExceptionMetered;
+
+import feign.RequestLine;
+
+interface MyClientWithExceptionCause {
+  @ExceptionMetered(cause = IllegalStateException.class)
+  @RequestLine("POST /")
+  void myMethod();
+}
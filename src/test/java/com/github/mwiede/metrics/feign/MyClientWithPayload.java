@@ -0,0 +1,11 @@
+package com.github.mwiede.metrics.feign;
+
+import com.codahale.metrics.annotation.Timed;
+
+import feign.RequestLine;
+
+interface MyClientWithPayload {
+  @Timed
+  @RequestLine("POST /")
+  String echo(String body);
+}
@@ -0,0 +1,14 @@
+package com.github.mwiede.metrics.feign;
+
+import com.codahale.metrics.annotation.Timed;
+
+import feign.RequestLine;
+
+@TimerReservoir(TimerReservoir.Type.SLIDING_TIME_WINDOW)
+interface MyClientWithTimerReservoir {
+
+  @Timed
+  @TimerReservoir(TimerReservoir.Type.HDR_HISTOGRAM)
+  @RequestLine("POST /")
+  void myMethod();
+}
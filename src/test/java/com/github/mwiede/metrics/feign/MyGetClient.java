@@ -0,0 +1,14 @@
+package com.github.mwiede.metrics.feign;
+
+import com.codahale.metrics.annotation.Timed;
+
+import feign.Headers;
+import feign.Param;
+import feign.RequestLine;
+
+interface MyGetClient {
+  @Timed
+  @RequestLine("GET /items/{id}")
+  @Headers("Accept: {accept}")
+  String item(@Param("id") String id, @Param("accept") String accept);
+}
@@ -0,0 +1,16 @@
+package com.github.mwiede.metrics.feign;
+
+import com.codahale.metrics.annotation.Timed;
+
+import feign.RequestLine;
+
+interface MyIdempotentClient {
+  @Timed
+  @Idempotent
+  @RequestLine("POST /")
+  String call();
+
+  @Timed
+  @RequestLine("POST /other")
+  String notIdempotent();
+}
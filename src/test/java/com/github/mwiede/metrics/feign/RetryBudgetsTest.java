@@ -0,0 +1,118 @@
+package com.github.mwiede.metrics.feign;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+import feign.Feign;
+import feign.RetryableException;
+
+public class RetryBudgetsTest {
+
+  private MetricRegistry metricRegistry;
+
+  @Before
+  public void init() {
+    metricRegistry = new MetricRegistry();
+  }
+
+  @Test
+  public void retriesAreLimitedToARatioOfSuccessfulRequests() throws Exception {
+    final AtomicBoolean failing = new AtomicBoolean(true);
+    final StubClient client = new StubClient(request -> {
+      if (failing.get()) {
+        throw new IOException("connection refused");
+      }
+      return StubClient.response(request, 200, "ok");
+    });
+    final MyGetClient target = Feign.builder().client(client)
+        .addCapability(AnnotionMetricsCapability.builder(metricRegistry)
+            .retryBudget(0.1, 0)
+            .adaptiveRetryBackoff(3, 1, TimeUnit.MILLISECONDS)
+            .build())
+        .target(MyGetClient.class, "http://localhost");
+
+    for (int i = 0; i < 10; i++) {
+      try {
+        target.item("1", "text/plain");
+        fail("the request must fail");
+      } catch (final RetryableException e) {
+        // expected
+      }
+    }
+
+    final String prefix = "com.github.mwiede.metrics.feign.MyGetClient.item";
+    assertEquals("the budget of 10 retries covers 5 invocations", 5 * 3 + 5, client.sent.get());
+    assertEquals(5, metricRegistry.meter(prefix + ".retryBudgetExhausted.Metered").getCount());
+    assertEquals(10, metricRegistry.meter(prefix + ".retryExhausted.Metered").getCount());
+    final Gauge<?> budget = metricRegistry.getGauges()
+        .get("com.github.mwiede.metrics.feign.MyGetClient.http_//localhost.retryBudget");
+    assertEquals(0.0, (Double) budget.getValue(), 0.0);
+    assertTrue((Long) metricRegistry.getGauges().get(prefix + ".effectiveBackoff").getValue() <= 1);
+
+    failing.set(false);
+    for (int i = 0; i < 20; i++) {
+      target.item("1", "text/plain");
+    }
+    assertEquals("successful requests refill the budget", 2.0, (Double) budget.getValue(), 0.0);
+  }
+
+  @Test
+  public void retryBudgetsAreCappedAndReleasedWithTheirClients() {
+    final StubClient client = new StubClient();
+    final AnnotionMetricsCapability capability = AnnotionMetricsCapability.builder(metricRegistry)
+        .retryBudget(0.1, 0)
+        .dimensionByTargetName(1)
+        .releaseMetricsOfCollectedClients()
+        .build();
+    final MyGetClient first = Feign.builder().client(client).addCapability(capability)
+        .target(MyGetClient.class, "http://first");
+    final MyGetClient second = Feign.builder().client(client).addCapability(capability)
+        .target(MyGetClient.class, "http://second");
+
+    final String prefix = "com.github.mwiede.metrics.feign.MyGetClient.";
+    assertTrue(metricRegistry.getGauges().containsKey(prefix + "http_//first.retryBudget"));
+    assertTrue("targets beyond the cap share a budget",
+        metricRegistry.getGauges().containsKey(prefix + "other.retryBudget"));
+    assertFalse(metricRegistry.getGauges().containsKey(prefix + "http_//second.retryBudget"));
+
+    capability.release(first);
+    assertFalse(metricRegistry.getGauges().containsKey(prefix + "http_//first.retryBudget"));
+    assertTrue(metricRegistry.getGauges().containsKey(prefix + "other.retryBudget"));
+    capability.release(second);
+    assertFalse(metricRegistry.getGauges().containsKey(prefix + "other.retryBudget"));
+  }
+
+  @Test
+  public void cachedResponsesDoNotAddToTheRetryBudget() {
+    final StubClient client = new StubClient();
+    final MyCachedClient target = Feign.builder().client(client)
+        .addCapability(AnnotionMetricsCapability.builder(metricRegistry)
+            .retryBudget(1, 0)
+            .cacheResponses()
+            .build())
+        .target(MyCachedClient.class, "http://localhost");
+    final RetryBudget budget = (RetryBudget) metricRegistry.getGauges()
+        .get("com.github.mwiede.metrics.feign.MyCachedClient.http_//localhost.retryBudget");
+    while (budget.withdraw()) {
+      // empty the budget
+    }
+
+    target.document("1", "text/plain", "a");
+    target.document("1", "text/plain", "b");
+    target.document("1", "text/plain", "c");
+
+    assertEquals("only the response from the server counts", 1.0, budget.getValue(), 0.0);
+  }
+}
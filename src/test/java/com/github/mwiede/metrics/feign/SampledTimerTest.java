@@ -0,0 +1,65 @@
+package com.github.mwiede.metrics.feign;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import feign.Feign;
+
+public class SampledTimerTest {
+
+  private final ManualClock clock = new ManualClock();
+
+  @Test
+  public void sampledTimers() {
+    final MetricRegistry metricRegistry = new MetricRegistry();
+    final MyClientWithAnnotationOnMethodLevel target = Feign.builder().client(new StubClient())
+        .addCapability(AnnotionMetricsCapability.builder(metricRegistry).sampleTimers(4).build())
+        .target(MyClientWithAnnotationOnMethodLevel.class, "http://localhost");
+
+    for (int i = 0; i < 4000; i++) {
+      target.myMethod();
+    }
+
+    final String prefix = "com.github.mwiede.metrics.feign.MyClientWithAnnotationOnMethodLevel.myMethod";
+    final Timer timer = metricRegistry.timer(prefix + ".Timed");
+    assertTrue(timer instanceof SampledTimer);
+    assertEquals(4000, metricRegistry.meter(prefix + ".Metered").getCount());
+    assertEquals("the count compensates for the sampling", 4000, timer.getCount(), 600);
+    assertTrue(timer.getSnapshot().size() < 2000);
+  }
+
+  @Test
+  public void rateFollowsTheTraffic() {
+    final SampledTimer timer = new SampledTimer(new Timer(), 1, 1000, clock);
+    for (int i = 0; i < 60000; i++) {
+      clock.advance(50, TimeUnit.MICROSECONDS);
+      timer.sample();
+    }
+
+    assertEquals("20000 invocations per second", 20, timer.rate());
+    assertEquals("the count compensates for the sampling", 60000, timer.getCount(), 6000);
+  }
+
+  @Test
+  public void rateFallsWithTheTraffic() {
+    final SampledTimer timer = new SampledTimer(new Timer(), 1, 100, clock);
+    for (int i = 0; i < 1000; i++) {
+      timer.sample();
+    }
+    clock.advance(1, TimeUnit.SECONDS);
+    timer.sample();
+    assertEquals(11, timer.rate());
+
+    // a single invocation after a quiet second, which is most likely not sampled at the high rate
+    clock.advance(1, TimeUnit.SECONDS);
+    timer.sample();
+    assertEquals(1, timer.rate());
+  }
+}
@@ -0,0 +1,58 @@
+package com.github.mwiede.metrics.feign;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import feign.Client;
+import feign.Request;
+import feign.Request.Options;
+import feign.Response;
+
+/**
+ * A {@link Client} which answers each request without sending it, and counts the requests.
+ */
+class StubClient implements Client {
+
+  interface Answer {
+    Response answer(Request request) throws IOException;
+  }
+
+  final AtomicInteger sent = new AtomicInteger();
+  private final Answer answer;
+
+  /**
+   * Answers each request with status 200 and the body {@code ok}.
+   */
+  StubClient() {
+    this(200);
+  }
+
+  StubClient(final int status) {
+    this(request -> response(request, status, "ok"));
+  }
+
+  StubClient(final Answer answer) {
+    this.answer = answer;
+  }
+
+  @Override
+  public Response execute(final Request request, final Options options) throws IOException {
+    sent.incrementAndGet();
+    return answer.answer(request);
+  }
+
+  /**
+   * @return a response to the request with the given status and body, or without a body if it is
+   *         {@code null}
+   */
+  static Response response(final Request request, final int status, final String body) {
+    final Response.Builder builder =
+        Response.builder().status(status).request(request).headers(Collections.emptyMap());
+    if (body != null) {
+      builder.body(body.getBytes(StandardCharsets.UTF_8));
+    }
+    return builder.build();
+  }
+}